@@ -0,0 +1,15 @@
+package android.app;
+
+import android.widget.RemoteViews;
+
+/**
+ * Benchmark stub, only the fields the text extraction reads.
+ */
+public class Notification {
+
+    public RemoteViews contentView;
+    public int priority;
+
+    public Notification() {
+    }
+}
@@ -0,0 +1,9 @@
+package android.content;
+
+/**
+ * Benchmark stub.
+ */
+public abstract class BroadcastReceiver {
+
+    public abstract void onReceive(Context context, Intent intent);
+}
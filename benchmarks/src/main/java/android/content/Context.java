@@ -0,0 +1,17 @@
+package android.content;
+
+import android.content.pm.PackageManager;
+
+/**
+ * Benchmark stub.
+ */
+public abstract class Context {
+
+    public abstract Context getApplicationContext();
+
+    public abstract PackageManager getPackageManager();
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return null;
+    }
+}
@@ -0,0 +1,19 @@
+package android.content;
+
+/**
+ * Benchmark stub.
+ */
+public class IntentFilter {
+
+    public IntentFilter() {
+    }
+
+    public IntentFilter(String action) {
+    }
+
+    public void addAction(String action) {
+    }
+
+    public void addDataScheme(String scheme) {
+    }
+}
@@ -0,0 +1,9 @@
+package android.content.pm;
+
+/**
+ * Benchmark stub.
+ */
+public class ApplicationInfo {
+
+    public String packageName;
+}
@@ -0,0 +1,25 @@
+package android.content.pm;
+
+import java.util.List;
+
+/**
+ * Benchmark stub.
+ */
+public abstract class PackageManager {
+
+    public static class NameNotFoundException extends Exception {
+
+        public NameNotFoundException() {
+        }
+
+        public NameNotFoundException(String name) {
+            super(name);
+        }
+    }
+
+    public abstract ApplicationInfo getApplicationInfo(String packageName, int flags) throws NameNotFoundException;
+
+    public abstract CharSequence getApplicationLabel(ApplicationInfo info);
+
+    public abstract List<ApplicationInfo> getInstalledApplications(int flags);
+}
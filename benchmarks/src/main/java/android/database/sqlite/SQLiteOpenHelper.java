@@ -0,0 +1,30 @@
+package android.database.sqlite;
+
+import android.content.Context;
+
+/**
+ * Benchmark stub, there is no SQLite on the JVM: the databases are null.
+ */
+public abstract class SQLiteOpenHelper {
+
+    public SQLiteOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
+    }
+
+    public void setWriteAheadLoggingEnabled(boolean enabled) {
+    }
+
+    public SQLiteDatabase getWritableDatabase() {
+        return null;
+    }
+
+    public SQLiteDatabase getReadableDatabase() {
+        return null;
+    }
+
+    public void onOpen(SQLiteDatabase db) {
+    }
+
+    public abstract void onCreate(SQLiteDatabase db);
+
+    public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+}
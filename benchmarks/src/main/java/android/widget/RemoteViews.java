@@ -0,0 +1,16 @@
+package android.widget;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmark stub, shaped like the real RemoteViews: the actions are kept in a
+ * private mActions list that is read through reflection.
+ */
+public class RemoteViews {
+
+    private ArrayList<Object> mActions;
+
+    public RemoteViews(ArrayList<Object> actions) {
+        mActions = actions;
+    }
+}
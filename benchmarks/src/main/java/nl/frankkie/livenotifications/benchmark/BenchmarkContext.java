@@ -0,0 +1,61 @@
+package nl.frankkie.livenotifications.benchmark;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Context with a PackageManager that knows a fixed set of package labels.
+ */
+public class BenchmarkContext extends Context {
+
+    private final BenchmarkPackageManager packageManager = new BenchmarkPackageManager();
+
+    public void addPackage(String packageName, String label) {
+        packageManager.labels.put(packageName, label);
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public PackageManager getPackageManager() {
+        return packageManager;
+    }
+
+    private static class BenchmarkPackageManager extends PackageManager {
+
+        final HashMap<String, String> labels = new HashMap<String, String>();
+
+        @Override
+        public ApplicationInfo getApplicationInfo(String packageName, int flags) throws NameNotFoundException {
+            if (!labels.containsKey(packageName)) {
+                throw new NameNotFoundException(packageName);
+            }
+            ApplicationInfo info = new ApplicationInfo();
+            info.packageName = packageName;
+            return info;
+        }
+
+        @Override
+        public CharSequence getApplicationLabel(ApplicationInfo info) {
+            return labels.get(info.packageName);
+        }
+
+        @Override
+        public List<ApplicationInfo> getInstalledApplications(int flags) {
+            List<ApplicationInfo> installed = new ArrayList<ApplicationInfo>();
+            for (String packageName : labels.keySet()) {
+                ApplicationInfo info = new ApplicationInfo();
+                info.packageName = packageName;
+                installed.add(info);
+            }
+            return installed;
+        }
+    }
+}
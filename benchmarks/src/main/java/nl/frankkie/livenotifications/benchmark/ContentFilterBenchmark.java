@@ -0,0 +1,80 @@
+package nl.frankkie.livenotifications.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import nl.frankkie.livenotifications.ContentFilter;
+import nl.frankkie.livenotifications.databaserows.KeywordFilterItem;
+import nl.frankkie.livenotifications.databaserows.RegexFilterItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ContentFilter.allowText with different amounts of keyword rules and a few regex rules.
+ * The keywords are scanned in one pass, so the time should hardly depend on ruleCount.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentFilterBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int ruleCount;
+    private ContentFilter filter;
+    private String ignoredByKeyword;
+    private String ignoredByRegex;
+    private String allowed;
+
+    @Setup
+    public void setup() {
+        ArrayList<KeywordFilterItem> keywordItems = new ArrayList<KeywordFilterItem>();
+        for (int i = 0; i < ruleCount; i++) {
+            KeywordFilterItem item = new KeywordFilterItem();
+            item.keyword = "keyword" + i;
+            keywordItems.add(item);
+        }
+        KeywordFilterItem downloading = new KeywordFilterItem();
+        downloading.keyword = "Downloading";
+        keywordItems.add(downloading);
+
+        ArrayList<RegexFilterItem> regexItems = new ArrayList<RegexFilterItem>();
+        RegexFilterItem otp = new RegexFilterItem();
+        otp.pattern = "(?i)\\bcode:? \\d{6}\\b";
+        regexItems.add(otp);
+        RegexFilterItem allowFailed = new RegexFilterItem();
+        allowFailed.pattern = "(?i)failed$";
+        allowFailed.allow = true;
+        regexItems.add(allowFailed);
+
+        filter = new ContentFilter(keywordItems, regexItems);
+        ignoredByKeyword = "Google Play - DOWNLOADING update for 3 apps, 45% of 120 MB";
+        ignoredByRegex = "Your verification code 482913 expires in 10 minutes, do not share it";
+        allowed = "Frank: Are we still meeting at the station tomorrow at half past nine?";
+    }
+
+    @Benchmark
+    public boolean ignoredByKeyword() {
+        return filter.allowText(ignoredByKeyword);
+    }
+
+    @Benchmark
+    public boolean ignoredByRegex() {
+        return filter.allowText(ignoredByRegex);
+    }
+
+    @Benchmark
+    public boolean allowed() {
+        return filter.allowText(allowed);
+    }
+}
@@ -0,0 +1,99 @@
+package nl.frankkie.livenotifications.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import nl.frankkie.livenotifications.ContentFilter;
+import nl.frankkie.livenotifications.IgnoreFilterUtil;
+import nl.frankkie.livenotifications.NotificationSnapshot;
+import nl.frankkie.livenotifications.databaserows.IgnoreItem;
+import nl.wotuu.database.DatabaseOpenHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * IgnoreFilterUtil.allowNotification with ignore-lists of different sizes.
+ * A third of the rules are packagenames, a third app labels and a third wildcards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IgnoreFilterBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int ruleCount;
+    private BenchmarkContext context;
+    private NotificationSnapshot ignoredByPackage;
+    private NotificationSnapshot ignoredByLabel;
+    private NotificationSnapshot ignoredByWildcard;
+    private NotificationSnapshot allowed;
+
+    @Setup
+    public void setup() {
+        context = new BenchmarkContext();
+        DatabaseOpenHelper.createInstance(context);
+
+        ArrayList<IgnoreItem> items = new ArrayList<IgnoreItem>();
+        for (int i = 0; i < ruleCount; i++) {
+            IgnoreItem item = new IgnoreItem();
+            switch (i % 3) {
+                case 0:
+                    item.packageName = "com.example.app" + i;
+                    break;
+                case 1:
+                    item.appName = "App " + i;
+                    break;
+                default:
+                    item.packageName = "com.vendor" + i + ".*";
+                    break;
+            }
+            items.add(item);
+        }
+
+        int last = ruleCount - 1;
+        ignoredByPackage = snapshot("com.example.app" + (last - last % 3));
+        context.addPackage("com.label.app", "App " + (last - (last + 2) % 3));
+        ignoredByLabel = snapshot("com.label.app");
+        context.addPackage("com.vendor2.mail", "Vendor Mail");
+        ignoredByWildcard = snapshot("com.vendor2.mail");
+        context.addPackage("com.whatsapp", "WhatsApp");
+        allowed = snapshot("com.whatsapp");
+        //resolves the label rules against the packages above
+        IgnoreFilterUtil.publish(context, items, ContentFilter.EMPTY);
+    }
+
+    private static NotificationSnapshot snapshot(String packageName) {
+        return new NotificationSnapshot(64, packageName, "android.app.Notification", 0, null);
+    }
+
+    @Benchmark
+    public boolean ignoredByPackage() {
+        return IgnoreFilterUtil.allowNotification(context, ignoredByPackage);
+    }
+
+    @Benchmark
+    public boolean ignoredByLabel() {
+        return IgnoreFilterUtil.allowNotification(context, ignoredByLabel);
+    }
+
+    @Benchmark
+    public boolean ignoredByWildcard() {
+        return IgnoreFilterUtil.allowNotification(context, ignoredByWildcard);
+    }
+
+    @Benchmark
+    public boolean allowed() {
+        return IgnoreFilterUtil.allowNotification(context, allowed);
+    }
+}
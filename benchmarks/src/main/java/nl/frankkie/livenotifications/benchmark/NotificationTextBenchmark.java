@@ -0,0 +1,93 @@
+package nl.frankkie.livenotifications.benchmark;
+
+import android.app.Notification;
+import android.widget.RemoteViews;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import nl.frankkie.livenotifications.NotificationTextExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Text extraction (what MyAccessibilityService does for every notification)
+ * on synthetic RemoteViews action lists.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationTextBenchmark {
+
+    @Param({"4", "16"})
+    public int actionCount;
+    private NotificationTextExtractor extractor;
+    private Notification notification;
+
+    @Setup
+    public void setup() {
+        extractor = new NotificationTextExtractor();
+        ArrayList<Object> actions = new ArrayList<Object>();
+        for (int i = 0; i < actionCount; i++) {
+            switch (i % 4) {
+                case 0:
+                case 1:
+                    actions.add(new ReflectionAction(i, "setText", "Line " + i + " of the notification"));
+                    break;
+                case 2:
+                    actions.add(new ReflectionAction(i, "setImageResource", Integer.valueOf(i)));
+                    break;
+                default:
+                    actions.add(new SetOnClickPendingIntent(i));
+                    break;
+            }
+        }
+        notification = new Notification();
+        notification.contentView = new RemoteViews(actions);
+    }
+
+    @Benchmark
+    public String getNotificationText() {
+        return extractor.getNotificationText(notification);
+    }
+
+    /**
+     * Same fields as RemoteViews$ReflectionAction.
+     */
+    static class ReflectionAction {
+
+        int viewId;
+        String methodName;
+        int type;
+        Object value;
+
+        ReflectionAction(int viewId, String methodName, Object value) {
+            this.viewId = viewId;
+            this.methodName = methodName;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Action without text, like RemoteViews$SetOnClickPendingIntent.
+     */
+    static class SetOnClickPendingIntent {
+
+        int viewId;
+        Object pendingIntent;
+
+        SetOnClickPendingIntent(int viewId) {
+            this.viewId = viewId;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package nl.wotuu.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Utils.join and Logger.formatMessage, used for every query and log line.
+ * In this package because formatMessage is package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilsBenchmark {
+
+    @Param({"4", "32"})
+    public int size;
+    private List<String> columns;
+
+    @Setup
+    public void setup() {
+        columns = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            columns.add("`column" + i + "` = ?");
+        }
+    }
+
+    @Benchmark
+    public String join() {
+        return Utils.join(columns, " AND ");
+    }
+
+    @Benchmark
+    public String formatMessage() {
+        return Logger.formatMessage("Batch processing finish! Processed {} queries in {} s.", size, 0.25);
+    }
+}
@@ -0,0 +1,169 @@
+package nl.wotuu.database;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A model, it does not run DatabaseOpenHelper: read latency of a lookup by id while a background thread keeps
+ * flushing batches of 10k rows in one transaction, like DatabaseBatchManager does. Uses desktop SQLite through
+ * JDBC on the outboxitem table layout.
+ * Without write-ahead logging Android has one connection; that is modelled with a fair lock around a JDBC
+ * connection, so the read waits for the flush transaction by construction. With write-ahead logging the read
+ * uses its own connection. The result shows the size of the difference for this table and batch size,
+ * not the behaviour of Android's connection pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalReadLatencyModelBenchmark {
+
+    private static final int EXISTING_ROWS = 1000;
+    private static final int FLUSH_ROWS = 10000;
+
+    @Param({"false", "true"})
+    public boolean writeAheadLogging;
+
+    private File databaseFile;
+    private Connection writeConnection;
+    private Connection readConnection;
+    private PreparedStatement select;
+    // Android hands out its one connection in order
+    private final ReentrantLock connectionLock = new ReentrantLock(true);
+    private final Random random = new Random(42);
+    private volatile boolean running;
+    private Thread flushThread;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        databaseFile = File.createTempFile("walbenchmark", ".db");
+        writeConnection = open();
+        Statement statement = writeConnection.createStatement();
+        statement.execute("PRAGMA journal_mode = " + (writeAheadLogging ? "WAL" : "DELETE"));
+        statement.execute("CREATE TABLE `outboxitem` (`id` INTEGER PRIMARY KEY, `timestamp` TEXT, `packageName` TEXT, " +
+                "`title` TEXT, `text` TEXT)");
+        statement.execute("CREATE INDEX `outboxitem_timestamp_index` ON `outboxitem` (`timestamp`)");
+        statement.close();
+        insertRows(1, EXISTING_ROWS);
+
+        readConnection = writeAheadLogging ? open() : writeConnection;
+        select = readConnection.prepareStatement("SELECT * FROM `outboxitem` WHERE `id` = ?");
+
+        running = true;
+        flushThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (running) {
+                        insertRows(EXISTING_ROWS + 1, FLUSH_ROWS);
+                        deleteRows(EXISTING_ROWS + 1);
+                        Thread.sleep(10);
+                    }
+                } catch (Exception e) {
+                    if (running)
+                        throw new RuntimeException(e);
+                }
+            }
+        }, "BatchFlush");
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        running = false;
+        flushThread.join();
+        select.close();
+        if (readConnection != writeConnection)
+            readConnection.close();
+        writeConnection.close();
+        databaseFile.delete();
+        new File(databaseFile.getPath() + "-wal").delete();
+        new File(databaseFile.getPath() + "-shm").delete();
+    }
+
+    @Benchmark
+    public String readById() throws SQLException {
+        if (!writeAheadLogging)
+            connectionLock.lock();
+        try {
+            select.setInt(1, 1 + random.nextInt(EXISTING_ROWS));
+            ResultSet resultSet = select.executeQuery();
+            try {
+                return resultSet.next() ? resultSet.getString("title") : null;
+            } finally {
+                resultSet.close();
+            }
+        } finally {
+            if (!writeAheadLogging)
+                connectionLock.unlock();
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getPath());
+        Statement statement = connection.createStatement();
+        statement.execute("PRAGMA busy_timeout = 10000");
+        statement.close();
+        return connection;
+    }
+
+    /**
+     * Inserts rows in one transaction, holding the connection like a flush does.
+     */
+    private void insertRows(int firstId, int count) throws SQLException {
+        connectionLock.lock();
+        try {
+            writeConnection.setAutoCommit(false);
+            PreparedStatement insert = writeConnection.prepareStatement("INSERT INTO `outboxitem` (`id`, `timestamp`, " +
+                    "`packageName`, `title`, `text`) VALUES (?, ?, ?, ?, ?)");
+            for (int id = firstId; id < firstId + count; id++) {
+                insert.setInt(1, id);
+                insert.setString(2, String.valueOf(1400000000000L + id));
+                insert.setString(3, "com.example.app" + (id % 50));
+                insert.setString(4, "Title " + id);
+                insert.setString(5, "Notification text of row " + id);
+                insert.executeUpdate();
+            }
+            insert.close();
+            writeConnection.commit();
+            writeConnection.setAutoCommit(true);
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    private void deleteRows(int firstId) throws SQLException {
+        connectionLock.lock();
+        try {
+            PreparedStatement delete = writeConnection.prepareStatement("DELETE FROM `outboxitem` WHERE `id` >= ?");
+            delete.setInt(1, firstId);
+            delete.executeUpdate();
+            delete.close();
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.sonyericsson.extras.liveview.plugins.livenotifications;
+
+import android.os.Handler;
+import java.util.HashMap;
+
+/**
+ * Merges notifications of one package that arrive within a time window.
+ *
+ * The first notification of a package is sent right away and opens a window.
+ * Notifications arriving while the window is open are counted, and when the
+ * window ends one announce with the count and the latest text is sent.
+ * As long as notifications keep coming in, a new window is opened.
+ */
+public class AnnounceCoalescer {
+
+    /**
+     * Receives the (merged) announces.
+     */
+    public interface Sink {
+
+        /**
+         * @param count amount of notifications this announce stands for, 1 when nothing was merged
+         * @param eventTime time of the latest notification, SystemClock.uptimeMillis() based
+         * @param priority best AnnounceScheduler priority class of the merged notifications
+         */
+        void announce(String packageName, String applicationName, String text, int count, long eventTime, int priority);
+    }
+
+    private final Handler mHandler;
+    private final Sink mSink;
+    private final HashMap<String, Window> mWindows = new HashMap<String, Window>();
+    private volatile long mWindowMs;
+
+    public AnnounceCoalescer(Handler handler, long windowMs, Sink sink) {
+        mHandler = handler;
+        mWindowMs = windowMs;
+        mSink = sink;
+    }
+
+    public void setWindowMs(long windowMs) {
+        mWindowMs = windowMs;
+    }
+
+    public long getWindowMs() {
+        return mWindowMs;
+    }
+
+    /**
+     * @param eventTime time of the notification, SystemClock.uptimeMillis() based
+     * @param priority AnnounceScheduler priority class
+     */
+    public void submit(String packageName, String applicationName, String text, long eventTime, int priority) {
+        long windowMs = mWindowMs;
+        if (windowMs <= 0) {
+            mSink.announce(packageName, applicationName, text, 1, eventTime, priority);
+            return;
+        }
+        synchronized (mWindows) {
+            Window window = mWindows.get(packageName);
+            if (window != null) {
+                window.count++;
+                window.applicationName = applicationName;
+                window.text = text;
+                window.eventTime = eventTime;
+                window.priority = Math.min(window.priority, priority);
+                return;
+            }
+            window = new Window(packageName);
+            mWindows.put(packageName, window);
+            mHandler.postDelayed(window, windowMs);
+        }
+        //first one of the window is not delayed
+        mSink.announce(packageName, applicationName, text, 1, eventTime, priority);
+    }
+
+    /**
+     * Sends everything that is still waiting, and closes all windows.
+     */
+    public void flushAll() {
+        Window[] windows;
+        synchronized (mWindows) {
+            windows = mWindows.values().toArray(new Window[mWindows.size()]);
+            mWindows.clear();
+        }
+        for (Window window : windows) {
+            mHandler.removeCallbacks(window);
+            window.send();
+        }
+    }
+
+    private class Window implements Runnable {
+
+        final String packageName;
+        String applicationName;
+        String text;
+        long eventTime;
+        int count = 0;
+        int priority = AnnounceScheduler.PRIORITY_LOW;
+
+        Window(String packageName) {
+            this.packageName = packageName;
+        }
+
+        public void run() {
+            synchronized (mWindows) {
+                if (mWindows.get(packageName) != this) {
+                    return;
+                }
+                if (count == 0) {
+                    //quiet, close the window
+                    mWindows.remove(packageName);
+                    return;
+                }
+                //still busy, keep coalescing in a new window
+                Window next = new Window(packageName);
+                mWindows.put(packageName, next);
+                mHandler.postDelayed(next, mWindowMs);
+            }
+            send();
+        }
+
+        void send() {
+            if (count > 0) {
+                mSink.announce(packageName, applicationName, text, count, eventTime, priority);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.sonyericsson.extras.liveview.plugins.livenotifications;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import com.sonyericsson.extras.liveview.plugins.PluginConstants;
+import nl.frankkie.livenotifications.databaserows.OutboxItem;
+import nl.wotuu.database.DatabaseOpenHelper;
+
+/**
+ * Persistent outbox for announces that could not be sent because LiveView was
+ * not reachable. They are replayed in order when the connection is back.
+ *
+ * All database work is done on one background thread, so stores and replays
+ * stay in order and never run on the main thread.
+ */
+public class AnnounceOutbox {
+
+    /**
+     * Sends one announce, returns false when LiveView is (still) not reachable.
+     */
+    public interface Sender {
+
+        boolean send(String header, String body, long timestamp);
+    }
+
+    // Retention
+    public static final int MAX_ITEMS = 100;
+    public static final long MAX_AGE_MS = 6 * 60 * 60 * 1000;
+    // Rows read per query while replaying
+    private static final int REPLAY_BATCH_SIZE = 20;
+
+    private final Context mContext;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    public AnnounceOutbox(Context context) {
+        mContext = context.getApplicationContext();
+        mThread = new HandlerThread("AnnounceOutbox", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Stops the outbox thread once the stores and replays posted before are done.
+     */
+    public void quit() {
+        mHandler.post(new Runnable() {
+            public void run() {
+                mThread.quit();
+            }
+        });
+    }
+
+    /**
+     * Stores an announce, to be sent later.
+     */
+    public void store(final String header, final String body, final long timestamp) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                try {
+                    DatabaseOpenHelper.createInstance(mContext);
+                    OutboxItem item = new OutboxItem();
+                    item.header = header;
+                    item.body = body;
+                    item.timestamp = timestamp;
+                    item.onInsert();
+                    prune();
+                } catch (Exception e) {
+                    Log.e(PluginConstants.LOG_TAG, "Failed to store announce in outbox", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends the stored announces in order, stops at the first one that fails.
+     *
+     * @param done run on the outbox thread when the replay is finished, also when it failed
+     */
+    public void replay(final Sender sender, final Runnable done) {
+        boolean posted = mHandler.post(new Runnable() {
+            public void run() {
+                try {
+                    DatabaseOpenHelper.createInstance(mContext);
+                    prune();
+                    int sent = replayStored(sender);
+                    if (sent > 0) {
+                        Log.d(PluginConstants.LOG_TAG, "Replayed " + sent + " announces from outbox");
+                    }
+                } catch (Exception e) {
+                    Log.e(PluginConstants.LOG_TAG, "Failed to replay outbox", e);
+                } finally {
+                    done.run();
+                }
+            }
+        });
+        if (!posted) {
+            //outbox thread has quit
+            done.run();
+        }
+    }
+
+    private int replayStored(Sender sender) {
+        DatabaseOpenHelper helper = DatabaseOpenHelper.getInstance();
+        String tableName = DatabaseOpenHelper.getTableName(OutboxItem.class);
+        int sent = 0;
+        while (true) {
+            int lastSentId = -1;
+            boolean failed = false;
+            int rows = 0;
+            Cursor cursor = helper.readableDatabase.rawQuery("SELECT `id`, `header`, `body`, `timestamp` FROM `" + tableName
+                    + "` ORDER BY `id` LIMIT " + REPLAY_BATCH_SIZE, null);
+            try {
+                while (cursor.moveToNext()) {
+                    rows++;
+                    if (!sender.send(cursor.getString(1), cursor.getString(2), cursor.getLong(3))) {
+                        failed = true;
+                        break;
+                    }
+                    lastSentId = cursor.getInt(0);
+                    sent++;
+                }
+            } finally {
+                cursor.close();
+            }
+            if (lastSentId > 0) {
+                helper.synchronizedDelete("DELETE FROM `" + tableName + "` WHERE `id` <= " + lastSentId, false);
+            }
+            if (failed || rows < REPLAY_BATCH_SIZE) {
+                return sent;
+            }
+        }
+    }
+
+    /**
+     * Removes announces that are too old, and the oldest ones above MAX_ITEMS.
+     */
+    private void prune() {
+        DatabaseOpenHelper helper = DatabaseOpenHelper.getInstance();
+        String tableName = DatabaseOpenHelper.getTableName(OutboxItem.class);
+        helper.synchronizedDelete("DELETE FROM `" + tableName + "` WHERE `timestamp` < "
+                + (System.currentTimeMillis() - MAX_AGE_MS), false);
+        helper.synchronizedDelete("DELETE FROM `" + tableName + "` WHERE `id` NOT IN (SELECT `id` FROM `" + tableName
+                + "` ORDER BY `id` DESC LIMIT " + MAX_ITEMS + ")", false);
+    }
+}
@@ -0,0 +1,269 @@
+package com.sonyericsson.extras.liveview.plugins.livenotifications;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import java.util.ArrayList;
+
+/**
+ * Token bucket per package, so one app can't flood LiveView with announces.
+ *
+ * Every package can send a burst of notifications, after that it gets new
+ * tokens at a fixed rate. Notifications without a token are counted, and when
+ * the bucket has a token again one summary with that count is sent.
+ *
+ * The buckets are kept in an open-addressed table (parallel arrays, linear
+ * probing on the packagename hash), a lookup does not allocate.
+ */
+public class AnnounceRateLimiter {
+
+    /**
+     * Receives the summaries of the suppressed notifications.
+     */
+    public interface Sink {
+
+        /**
+         * @param count amount of notifications that were not sent
+         */
+        void suppressed(String packageName, String applicationName, int count);
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+    // Packages are only added, start over when there are this many
+    private static final int MAX_PACKAGES = 1024;
+
+    private final Handler mHandler;
+    private final Sink mSink;
+    private double mRatePerMs;
+    private int mBurst;
+
+    private String[] mKeys = new String[INITIAL_CAPACITY];
+    private String[] mLabels = new String[INITIAL_CAPACITY];
+    private double[] mTokens = new double[INITIAL_CAPACITY];
+    private long[] mLastRefill = new long[INITIAL_CAPACITY];
+    private int[] mSuppressed = new int[INITIAL_CAPACITY];
+    private int mSize = 0;
+
+    private boolean mSummaryScheduled = false;
+    private long mSuppressedTotal = 0;
+    private long mSummaryCount = 0;
+
+    /**
+     * @param perMinute tokens added per minute, 0 disables the limiter
+     * @param burst bucket size
+     */
+    public AnnounceRateLimiter(Handler handler, int perMinute, int burst, Sink sink) {
+        mHandler = handler;
+        mSink = sink;
+        setLimits(perMinute, burst);
+    }
+
+    public synchronized void setLimits(int perMinute, int burst) {
+        mRatePerMs = perMinute / 60000.0;
+        mBurst = Math.max(1, burst);
+    }
+
+    public synchronized boolean isEnabled() {
+        return mRatePerMs > 0;
+    }
+
+    public synchronized int getPerMinute() {
+        return (int) Math.round(mRatePerMs * 60000.0);
+    }
+
+    public synchronized int getBurst() {
+        return mBurst;
+    }
+
+    public synchronized long getSuppressedTotal() {
+        return mSuppressedTotal;
+    }
+
+    public synchronized long getSummaryCount() {
+        return mSummaryCount;
+    }
+
+    /**
+     * Takes a token of the package.
+     *
+     * @return false when the package is over its limit, the notification is counted for the summary
+     */
+    public synchronized boolean tryAcquire(String packageName, String applicationName) {
+        if (mRatePerMs <= 0) {
+            return true;
+        }
+        long now = SystemClock.uptimeMillis();
+        int slot = slotOf(packageName, now);
+        refill(slot, now);
+        if (mTokens[slot] >= 1) {
+            mTokens[slot] -= 1;
+            return true;
+        }
+        mSuppressed[slot]++;
+        mLabels[slot] = applicationName;
+        mSuppressedTotal++;
+        scheduleSummary();
+        return false;
+    }
+
+    /**
+     * Sends the summaries that are still waiting, and forgets all buckets.
+     */
+    public void flushAll() {
+        ArrayList<Object[]> summaries;
+        synchronized (this) {
+            summaries = takePending();
+            clear();
+            mHandler.removeCallbacks(mSummaryRunnable);
+            mSummaryScheduled = false;
+        }
+        send(summaries);
+    }
+
+    /**
+     * @return the summaries of all buckets with suppressed notifications, counted as sent
+     */
+    private ArrayList<Object[]> takePending() {
+        ArrayList<Object[]> summaries = new ArrayList<Object[]>();
+        for (int slot = 0; slot < mKeys.length; slot++) {
+            if (mKeys[slot] != null && mSuppressed[slot] > 0) {
+                summaries.add(new Object[]{mKeys[slot], mLabels[slot], mSuppressed[slot]});
+            }
+        }
+        mSummaryCount += summaries.size();
+        return summaries;
+    }
+
+    private int slotOf(String packageName, long now) {
+        int mask = mKeys.length - 1;
+        int slot = mix(packageName.hashCode()) & mask;
+        while (mKeys[slot] != null) {
+            if (mKeys[slot].equals(packageName)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (mSize >= MAX_PACKAGES) {
+            //don't lose the counts, the summaries are sent outside the lock
+            final ArrayList<Object[]> summaries = takePending();
+            clear();
+            if (!summaries.isEmpty()) {
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        send(summaries);
+                    }
+                });
+            }
+            return slotOf(packageName, now);
+        }
+        if ((mSize + 1) * 2 > mKeys.length) {
+            grow();
+            return slotOf(packageName, now);
+        }
+        mKeys[slot] = packageName;
+        mTokens[slot] = mBurst;
+        mLastRefill[slot] = now;
+        mSize++;
+        return slot;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private void refill(int slot, long now) {
+        long elapsed = now - mLastRefill[slot];
+        if (elapsed > 0) {
+            mTokens[slot] = Math.min(mBurst, mTokens[slot] + elapsed * mRatePerMs);
+            mLastRefill[slot] = now;
+        }
+    }
+
+    private void grow() {
+        String[] keys = mKeys;
+        String[] labels = mLabels;
+        double[] tokens = mTokens;
+        long[] lastRefill = mLastRefill;
+        int[] suppressed = mSuppressed;
+        int capacity = keys.length * 2;
+        mKeys = new String[capacity];
+        mLabels = new String[capacity];
+        mTokens = new double[capacity];
+        mLastRefill = new long[capacity];
+        mSuppressed = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) {
+                continue;
+            }
+            int slot = mix(keys[i].hashCode()) & mask;
+            while (mKeys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            mKeys[slot] = keys[i];
+            mLabels[slot] = labels[i];
+            mTokens[slot] = tokens[i];
+            mLastRefill[slot] = lastRefill[i];
+            mSuppressed[slot] = suppressed[i];
+        }
+    }
+
+    private void clear() {
+        for (int slot = 0; slot < mKeys.length; slot++) {
+            mKeys[slot] = null;
+            mLabels[slot] = null;
+            mSuppressed[slot] = 0;
+        }
+        mSize = 0;
+    }
+
+    /**
+     * Checks again when the next token is there.
+     */
+    private void scheduleSummary() {
+        if (mSummaryScheduled || mRatePerMs <= 0) {
+            return;
+        }
+        mSummaryScheduled = true;
+        mHandler.postDelayed(mSummaryRunnable, (long) Math.ceil(1 / mRatePerMs));
+    }
+
+    private void send(ArrayList<Object[]> summaries) {
+        for (Object[] summary : summaries) {
+            mSink.suppressed((String) summary[0], (String) summary[1], (Integer) summary[2]);
+        }
+    }
+
+    private final Runnable mSummaryRunnable = new Runnable() {
+        public void run() {
+            ArrayList<Object[]> summaries = new ArrayList<Object[]>();
+            synchronized (AnnounceRateLimiter.this) {
+                mSummaryScheduled = false;
+                long now = SystemClock.uptimeMillis();
+                boolean waiting = false;
+                for (int slot = 0; slot < mKeys.length; slot++) {
+                    if (mKeys[slot] == null || mSuppressed[slot] == 0) {
+                        continue;
+                    }
+                    refill(slot, now);
+                    if (mRatePerMs <= 0) {
+                        //turned off in the meantime
+                        summaries.add(new Object[]{mKeys[slot], mLabels[slot], mSuppressed[slot]});
+                        mSuppressed[slot] = 0;
+                    } else if (mTokens[slot] >= 1) {
+                        //the summary takes the token
+                        mTokens[slot] -= 1;
+                        summaries.add(new Object[]{mKeys[slot], mLabels[slot], mSuppressed[slot]});
+                        mSuppressed[slot] = 0;
+                    } else {
+                        waiting = true;
+                    }
+                }
+                if (waiting) {
+                    scheduleSummary();
+                }
+                mSummaryCount += summaries.size();
+            }
+            send(summaries);
+        }
+    };
+}
@@ -0,0 +1,362 @@
+package com.sonyericsson.extras.liveview.plugins.livenotifications;
+
+import android.os.Process;
+import android.util.Log;
+import com.sonyericsson.extras.liveview.plugins.PluginConstants;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import nl.frankkie.livenotifications.LatencyHistogram;
+
+/**
+ * Sends announces to LiveView by priority instead of in arrival order.
+ *
+ * Every priority class has its own bounded queue, when a queue is full its
+ * oldest announce is dropped. One dispatcher thread takes the announce with
+ * the best priority. An announce moves up one class for every aging period it
+ * waits, so low priority announces are not starved by a stream of high ones.
+ *
+ * The class comes from a per-package override, the notification category
+ * (API21+) or Notification.priority (API16+), in that order.
+ */
+public class AnnounceScheduler {
+
+    /**
+     * Sends an announce, called on the dispatcher thread.
+     */
+    public interface Dispatcher {
+
+        /**
+         * @param eventTime SystemClock.uptimeMillis() of the notification; 0 when unknown
+         */
+        void dispatch(String header, String body, long eventTime);
+    }
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_DEFAULT = 1;
+    public static final int PRIORITY_LOW = 2;
+    public static final int PRIORITY_COUNT = 3;
+    private static final String[] PRIORITY_NAMES = {"high", "default", "low"};
+
+    private final Dispatcher mDispatcher;
+    private final int mCapacity;
+    private final long mAgingNanos;
+    private final Object mLock = new Object();
+    // Ring buffer per priority class
+    private final Announce[][] mQueues;
+    private final int[] mHeads = new int[PRIORITY_COUNT];
+    private final int[] mSizes = new int[PRIORITY_COUNT];
+    private final long[] mDispatched = new long[PRIORITY_COUNT];
+    private final long[] mDropped = new long[PRIORITY_COUNT];
+    private final LatencyHistogram[] mWaitTimes = new LatencyHistogram[PRIORITY_COUNT];
+    private volatile Map<String, Integer> mOverrides = Collections.emptyMap();
+    // The dispatcher thread, null once stopped
+    private Thread mThread = null;
+    // Given by stop(), for the dispatcher thread
+    private Dispatcher mDrain = null;
+    private Runnable mStopped = null;
+    // Dispatching waits while this is above 0
+    private int mPauseCount = 0;
+    private boolean mDispatching = false;
+
+    /**
+     * @param capacity queue size per priority class
+     * @param agingMs wait time after which an announce moves up one class
+     */
+    public AnnounceScheduler(int capacity, long agingMs, Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+        mCapacity = capacity;
+        mAgingNanos = agingMs * 1000000L;
+        mQueues = new Announce[PRIORITY_COUNT][capacity];
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mWaitTimes[i] = new LatencyHistogram();
+        }
+    }
+
+    public void start() {
+        synchronized (mLock) {
+            if (mThread != null) {
+                return;
+            }
+            mThread = new Thread(new Runnable() {
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    dispatchLoop();
+                }
+            }, "AnnounceScheduler");
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stops the dispatcher without waiting for it. The announce that is being
+     * dispatched is finished, what is still queued is handed to drain instead of
+     * being dispatched. Both drain and stopped are called on the dispatcher thread,
+     * or on the calling thread when the dispatcher is not running.
+     *
+     * @param drain receives the announces that were still queued, in dispatch order
+     * @param stopped run when the dispatcher is done, may be null
+     */
+    public void stop(Dispatcher drain, Runnable stopped) {
+        synchronized (mLock) {
+            if (mThread != null) {
+                mThread = null;
+                mDrain = drain;
+                mStopped = stopped;
+                mLock.notifyAll();
+                return;
+            }
+        }
+        drain(drain, stopped);
+    }
+
+    /**
+     * Holds back dispatching until resume(), for example while older announces are
+     * sent from somewhere else. Announces are still queued. Calls can be nested.
+     */
+    public void pause() {
+        synchronized (mLock) {
+            mPauseCount++;
+        }
+    }
+
+    public void resume() {
+        synchronized (mLock) {
+            if (mPauseCount > 0) {
+                mPauseCount--;
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the announce that is being dispatched, if any, is sent.
+     * After pause() nothing is dispatched once this returns.
+     */
+    public void awaitIdle() {
+        synchronized (mLock) {
+            while (mDispatching) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param overrides packagename to priority class
+     */
+    public void setOverrides(Map<String, Integer> overrides) {
+        mOverrides = Collections.unmodifiableMap(new HashMap<String, Integer>(overrides));
+    }
+
+    /**
+     * Parses overrides like "com.whatsapp=high, com.example.shop=low".
+     * Unknown classes and malformed entries are skipped.
+     */
+    public static Map<String, Integer> parseOverrides(String value) {
+        HashMap<String, Integer> overrides = new HashMap<String, Integer>();
+        if (value == null) {
+            return overrides;
+        }
+        for (String entry : value.split("[,;\\s]+")) {
+            int separator = entry.indexOf('=');
+            if (separator <= 0) {
+                continue;
+            }
+            String name = entry.substring(separator + 1).trim().toLowerCase(Locale.US);
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                if (PRIORITY_NAMES[i].equals(name)) {
+                    overrides.put(entry.substring(0, separator).trim(), i);
+                }
+            }
+        }
+        return overrides;
+    }
+
+    /**
+     * @param notificationPriority Notification.priority, 0 when unknown
+     * @param category Notification.category, null when unknown
+     * @return the priority class
+     */
+    public int classify(String packageName, int notificationPriority, String category) {
+        Integer override = mOverrides.get(packageName);
+        if (override != null) {
+            return override;
+        }
+        if (category != null) {
+            if (category.equals("call") || category.equals("msg") || category.equals("alarm")) {
+                return PRIORITY_HIGH;
+            }
+            if (category.equals("promo") || category.equals("recommendation") || category.equals("progress")
+                    || category.equals("service") || category.equals("status") || category.equals("transport")) {
+                return PRIORITY_LOW;
+            }
+        }
+        //Notification.PRIORITY_HIGH and PRIORITY_MAX, PRIORITY_LOW and PRIORITY_MIN
+        if (notificationPriority > 0) {
+            return PRIORITY_HIGH;
+        }
+        if (notificationPriority < 0) {
+            return PRIORITY_LOW;
+        }
+        return PRIORITY_DEFAULT;
+    }
+
+    public void enqueue(String header, String body, long eventTime, int priority) {
+        priority = Math.max(PRIORITY_HIGH, Math.min(PRIORITY_LOW, priority));
+        Announce announce = new Announce(header, body, eventTime, System.nanoTime());
+        synchronized (mLock) {
+            if (mSizes[priority] == mCapacity) {
+                //full, drop the oldest of this class
+                mQueues[priority][mHeads[priority]] = null;
+                mHeads[priority] = (mHeads[priority] + 1) % mCapacity;
+                mSizes[priority]--;
+                mDropped[priority]++;
+                Log.d(PluginConstants.LOG_TAG, "Announce queue " + PRIORITY_NAMES[priority] + " full, dropped oldest");
+            }
+            mQueues[priority][(mHeads[priority] + mSizes[priority]) % mCapacity] = announce;
+            mSizes[priority]++;
+            mLock.notifyAll();
+        }
+    }
+
+    private void dispatchLoop() {
+        Thread self = Thread.currentThread();
+        Dispatcher drain;
+        Runnable stopped;
+        while (true) {
+            Announce announce;
+            int priority = -1;
+            synchronized (mLock) {
+                mDispatching = false;
+                mLock.notifyAll();
+                while (mThread == self && (mPauseCount > 0 || (priority = next(System.nanoTime())) < 0)) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                if (mThread != self) {
+                    drain = mDrain;
+                    stopped = mStopped;
+                    mDrain = null;
+                    mStopped = null;
+                    break;
+                }
+                if (priority < 0) {
+                    //interrupted
+                    return;
+                }
+                announce = take(priority);
+                mDispatched[priority]++;
+                mDispatching = true;
+            }
+            mWaitTimes[priority].record(System.nanoTime() - announce.enqueuedNanos);
+            try {
+                mDispatcher.dispatch(announce.header, announce.body, announce.eventTime);
+            } catch (RuntimeException e) {
+                Log.e(PluginConstants.LOG_TAG, "Failed to dispatch announce", e);
+            }
+        }
+        drain(drain, stopped);
+    }
+
+    /**
+     * Hands all queued announces to drain, then runs stopped.
+     */
+    private void drain(Dispatcher drain, Runnable stopped) {
+        ArrayList<Announce> remaining = new ArrayList<Announce>();
+        synchronized (mLock) {
+            int priority;
+            while ((priority = next(System.nanoTime())) >= 0) {
+                remaining.add(take(priority));
+            }
+        }
+        for (Announce announce : remaining) {
+            try {
+                drain.dispatch(announce.header, announce.body, announce.eventTime);
+            } catch (RuntimeException e) {
+                Log.e(PluginConstants.LOG_TAG, "Failed to drain announce", e);
+            }
+        }
+        if (stopped != null) {
+            stopped.run();
+        }
+    }
+
+    /**
+     * Removes the oldest announce of a class, call with mLock held.
+     */
+    private Announce take(int priority) {
+        Announce announce = mQueues[priority][mHeads[priority]];
+        mQueues[priority][mHeads[priority]] = null;
+        mHeads[priority] = (mHeads[priority] + 1) % mCapacity;
+        mSizes[priority]--;
+        return announce;
+    }
+
+    /**
+     * The class whose oldest announce has the best priority after aging, ties go to the one waiting longest.
+     *
+     * @return the priority class, -1 when all queues are empty
+     */
+    private int next(long now) {
+        int best = -1;
+        long bestEffective = Long.MAX_VALUE;
+        long bestEnqueued = Long.MAX_VALUE;
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            if (mSizes[i] == 0) {
+                continue;
+            }
+            Announce head = mQueues[i][mHeads[i]];
+            long effective = i - (now - head.enqueuedNanos) / mAgingNanos;
+            if (effective < bestEffective || (effective == bestEffective && head.enqueuedNanos < bestEnqueued)) {
+                best = i;
+                bestEffective = effective;
+                bestEnqueued = head.enqueuedNanos;
+            }
+        }
+        return best;
+    }
+
+    public void resetMetrics() {
+        for (LatencyHistogram histogram : mWaitTimes) {
+            histogram.reset();
+        }
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("Announce wait (us)  queued  dispatched  dropped       p50       p95       p99       max");
+        synchronized (mLock) {
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                LatencyHistogram h = mWaitTimes[i];
+                writer.println(String.format("  %-12s %9d %11d %8d %9d %9d %9d %9d", PRIORITY_NAMES[i], mSizes[i],
+                        mDispatched[i], mDropped[i], h.getPercentileMicros(50), h.getPercentileMicros(95),
+                        h.getPercentileMicros(99), h.getMaxNanos() / 1000));
+            }
+        }
+    }
+
+    private static class Announce {
+
+        final String header;
+        final String body;
+        final long eventTime;
+        final long enqueuedNanos;
+
+        Announce(String header, String body, long eventTime, long enqueuedNanos) {
+            this.header = header;
+            this.body = body;
+            this.eventTime = eventTime;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+}
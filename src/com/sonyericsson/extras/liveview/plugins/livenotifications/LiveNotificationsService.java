@@ -24,6 +24,15 @@ package com.sonyericsson.extras.liveview.plugins.livenotifications;
 
 import com.sonyericsson.extras.liveview.plugins.AbstractPluginService;
 import com.sonyericsson.extras.liveview.plugins.PluginConstants;
+import nl.frankkie.livenotifications.ApplicationLabelCache;
+import nl.frankkie.livenotifications.DuplicateSuppressor;
+import nl.frankkie.livenotifications.MyAccessibilityService;
+import nl.frankkie.livenotifications.NotificationPipeline;
+import nl.frankkie.livenotifications.PipelineMetrics;
+import nl.frankkie.livenotifications.R;
+import nl.wotuu.database.DatabaseBatchManager;
+import nl.wotuu.database.DatabaseExecutor;
+import nl.wotuu.database.DatabaseOpenHelper;
 
 import android.content.ComponentName;
 import android.content.Intent;
@@ -32,7 +41,10 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.util.Log;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.reflect.Method;
 
 /**
@@ -48,10 +60,31 @@ public class LiveNotificationsService extends AbstractPluginService {
     // Counter
     private int mCounter = 1;
     // Is loop running?
-    private boolean mWorkerRunning = false;
+    private volatile boolean mWorkerRunning = false;
     // Preferences - update interval
     private static final String UPDATE_INTERVAL = "updateInterval";
     private long mUpdateInterval = 60000;
+    // Preferences - coalesce window
+    private static final String COALESCE_WINDOW = "coalesceWindow";
+    private static final long DEFAULT_COALESCE_WINDOW = 5000;
+    // Preferences - rate limit
+    private static final String RATE_LIMIT = "rateLimit";
+    private static final int DEFAULT_RATE_LIMIT = 30;
+    private static final String RATE_BURST = "rateBurst";
+    private static final int DEFAULT_RATE_BURST = 5;
+    // Limits the announces per package
+    private AnnounceRateLimiter mRateLimiter = null;
+    // Preferences - priority per package
+    private static final String PRIORITY_OVERRIDES = "priorityOverrides";
+    // Announce scheduler, bounded queue per priority class
+    private static final int SCHEDULER_CAPACITY = 32;
+    private static final long SCHEDULER_AGING_MS = 2000;
+    // Sends the announces by priority
+    private AnnounceScheduler mScheduler = null;
+    // Merges bursts of notifications per package
+    private AnnounceCoalescer mCoalescer = null;
+    // Announces that could not be delivered
+    private AnnounceOutbox mOutbox = null;
     private static LiveNotificationsService instance;
 
     public static LiveNotificationsService getInstance() {
@@ -66,24 +99,68 @@ public class LiveNotificationsService extends AbstractPluginService {
         if (mHandler == null) {
             mHandler = new Handler();
         }
+        if (mSharedPreferences != null) {
+            mCoalescer.setWindowMs(readCoalesceWindow(mSharedPreferences));
+            mRateLimiter.setLimits(readInt(mSharedPreferences, RATE_LIMIT, DEFAULT_RATE_LIMIT),
+                    readInt(mSharedPreferences, RATE_BURST, DEFAULT_RATE_BURST));
+            mScheduler.setOverrides(AnnounceScheduler.parseOverrides(mSharedPreferences.getString(PRIORITY_OVERRIDES, "")));
+        }
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
 
-        // ... 
-        // Do plugin specifics.
-        // ...
+        mOutbox = new AnnounceOutbox(this);
+        mScheduler = new AnnounceScheduler(SCHEDULER_CAPACITY, SCHEDULER_AGING_MS, new AnnounceScheduler.Dispatcher() {
+            public void dispatch(String header, String body, long eventTime) {
+                deliverAnnounce(header, body, eventTime);
+            }
+        });
+        mScheduler.start();
+        mRateLimiter = new AnnounceRateLimiter(new Handler(), DEFAULT_RATE_LIMIT, DEFAULT_RATE_BURST, new AnnounceRateLimiter.Sink() {
+            public void suppressed(String packageName, String applicationName, int count) {
+                sendAnnounce(getString(R.string.notification), getString(R.string.suppressed_notifications, applicationName, count));
+            }
+        });
+        mCoalescer = new AnnounceCoalescer(new Handler(), DEFAULT_COALESCE_WINDOW, new AnnounceCoalescer.Sink() {
+            public void announce(String packageName, String applicationName, String text, int count, long eventTime, int priority) {
+                String body;
+                if (count > 1) {
+                    body = getString(R.string.new_notifications, applicationName, count) + "\n" + text;
+                } else {
+                    body = applicationName + " " + getString(R.string.send_a_notification) + "\n" + text;
+                }
+                sendAnnounce(getString(R.string.notification), body, eventTime, priority);
+            }
+        });
     }
 
     @Override
     public void onDestroy() {
+        // Don't keep merged notifications waiting
+        mCoalescer.flushAll();
+        mRateLimiter.flushAll();
+        // Stores what is still queued without waiting for the dispatcher, the outbox stops after that
+        mScheduler.stop(new AnnounceScheduler.Dispatcher() {
+            public void dispatch(String header, String body, long eventTime) {
+                mOutbox.store(header, body, System.currentTimeMillis());
+            }
+        }, new Runnable() {
+            public void run() {
+                mOutbox.quit();
+            }
+        });
+        // Queued database writes would be lost when the process is killed
+        DatabaseOpenHelper.shutdownBatchManager();
+
         super.onDestroy();
+    }
 
-        // ... 
-        // Do plugin specifics.
-        // ...
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        DatabaseOpenHelper.flushQueuedQueries();
     }
 
     /**
@@ -101,6 +178,7 @@ public class LiveNotificationsService extends AbstractPluginService {
         if (!mWorkerRunning && mSharedPreferences.getBoolean(PluginConstants.PREFERENCES_PLUGIN_ENABLED, false)) {
             mWorkerRunning = true;
             //scheduleTimer();
+            replayOutbox();
         }
     }
 
@@ -109,6 +187,7 @@ public class LiveNotificationsService extends AbstractPluginService {
      */
     protected void stopWork() {
         mHandler.removeCallbacks(mAnnouncer);
+        mCoalescer.flushAll();
         mWorkerRunning = false;
     }
 
@@ -122,6 +201,9 @@ public class LiveNotificationsService extends AbstractPluginService {
      * needed.
      */
     protected void onServiceConnectedExtended(ComponentName className, IBinder service) {
+        // Open the database in the background, the outbox replay waits for it on its own thread
+        DatabaseExecutor.createInstance(this).open();
+        replayOutbox();
     }
 
     /**
@@ -148,6 +230,35 @@ public class LiveNotificationsService extends AbstractPluginService {
             mUpdateInterval = value * 1000;
 
             Log.d(PluginConstants.LOG_TAG, "Preferences changed - update interval: " + mUpdateInterval);
+        } else if (key.equals(COALESCE_WINDOW)) {
+            mCoalescer.setWindowMs(readCoalesceWindow(pref));
+
+            Log.d(PluginConstants.LOG_TAG, "Preferences changed - coalesce window: " + mCoalescer.getWindowMs());
+        } else if (key.equals(RATE_LIMIT) || key.equals(RATE_BURST)) {
+            mRateLimiter.setLimits(readInt(pref, RATE_LIMIT, DEFAULT_RATE_LIMIT), readInt(pref, RATE_BURST, DEFAULT_RATE_BURST));
+
+            Log.d(PluginConstants.LOG_TAG, "Preferences changed - rate limit: " + mRateLimiter.getPerMinute()
+                    + "/min, burst " + mRateLimiter.getBurst());
+        } else if (key.equals(PRIORITY_OVERRIDES)) {
+            mScheduler.setOverrides(AnnounceScheduler.parseOverrides(pref.getString(PRIORITY_OVERRIDES, "")));
+
+            Log.d(PluginConstants.LOG_TAG, "Preferences changed - priority overrides");
+        }
+    }
+
+    private static long readCoalesceWindow(SharedPreferences pref) {
+        try {
+            return Long.parseLong(pref.getString(COALESCE_WINDOW, Long.toString(DEFAULT_COALESCE_WINDOW)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_COALESCE_WINDOW;
+        }
+    }
+
+    private static int readInt(SharedPreferences pref, String key, int defaultValue) {
+        try {
+            return Integer.parseInt(pref.getString(key, Integer.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
         }
     }
 
@@ -203,17 +314,139 @@ public class LiveNotificationsService extends AbstractPluginService {
         Log.d(PluginConstants.LOG_TAG, "screenMode: screen is now " + ((mode == 0) ? "OFF" : "ON"));
     }
 
+    /**
+     * Announces a notification of an app. Apps over their rate limit are only counted,
+     * bursts from one app are merged.
+     *
+     * @param priority Notification.priority, 0 when unknown
+     * @param category Notification.category, null when unknown
+     */
+    public void announceNotification(String packageName, String applicationName, String text, long eventTime,
+            int priority, String category) {
+        if (!mRateLimiter.tryAcquire(packageName, applicationName)) {
+            return;
+        }
+        mCoalescer.submit(packageName, applicationName, text, eventTime, mScheduler.classify(packageName, priority, category));
+    }
+
+    /**
+     * Queues an announce for LiveView, with low priority.
+     */
     public void sendAnnounce(String header, String body) {
+        sendAnnounce(header, body, 0, AnnounceScheduler.PRIORITY_LOW);
+    }
+
+    /**
+     * Queues an announce for LiveView, higher priorities are sent first.
+     *
+     * @param eventTime SystemClock.uptimeMillis() of the notification, for the end-to-end latency; 0 when unknown
+     * @param priority AnnounceScheduler priority class
+     */
+    public void sendAnnounce(String header, String body, long eventTime, int priority) {
+        mScheduler.enqueue(header, body, eventTime, priority);
+    }
+
+    /**
+     * Sends an announce to LiveView, called by the scheduler. When LiveView is not
+     * reachable it is stored in the outbox, and sent when the connection is back.
+     */
+    private void deliverAnnounce(String header, String body, long eventTime) {
+        long timestamp = System.currentTimeMillis();
+        if (trySendAnnounce(header, body, timestamp)) {
+            if (eventTime > 0) {
+                PipelineMetrics.record(PipelineMetrics.Stage.END_TO_END, (SystemClock.uptimeMillis() - eventTime) * 1000000L);
+            }
+        } else if (isPluginEnabled()) {
+            mOutbox.store(header, body, timestamp);
+        }
+    }
+
+    private boolean trySendAnnounce(String header, String body, long timestamp) {
         try {
-            if (mWorkerRunning && (mLiveViewAdapter != null) && mSharedPreferences.getBoolean(PluginConstants.PREFERENCES_PLUGIN_ENABLED, false)) {
-                mLiveViewAdapter.sendAnnounce(mPluginId, mMenuIcon, header, body, System.currentTimeMillis(), "expand_statusbar");
+            if (mWorkerRunning && (mLiveViewAdapter != null) && isPluginEnabled()) {
+                long start = System.nanoTime();
+                mLiveViewAdapter.sendAnnounce(mPluginId, mMenuIcon, header, body, timestamp, "expand_statusbar");
+                PipelineMetrics.record(PipelineMetrics.Stage.IPC, System.nanoTime() - start);
                 Log.d(PluginConstants.LOG_TAG, "Announce sent to LiveView");
+                return true;
             } else {
                 Log.d(PluginConstants.LOG_TAG, "LiveView not reachable");
             }
         } catch (Exception e) {
             Log.e(PluginConstants.LOG_TAG, "Failed to send announce", e);
         }
+        return false;
+    }
+
+    private boolean isPluginEnabled() {
+        return mSharedPreferences != null && mSharedPreferences.getBoolean(PluginConstants.PREFERENCES_PLUGIN_ENABLED, false);
+    }
+
+    /**
+     * Sends the announces from the outbox, if LiveView is reachable.
+     * The scheduler is paused meanwhile, so newer announces are not sent before
+     * the stored ones and only one thread talks to LiveView.
+     */
+    private void replayOutbox() {
+        if (!mWorkerRunning || mLiveViewAdapter == null) {
+            return;
+        }
+        mScheduler.pause();
+        mOutbox.replay(new AnnounceOutbox.Sender() {
+            public boolean send(String header, String body, long timestamp) {
+                // Let the announce the scheduler was sending when it paused go first
+                mScheduler.awaitIdle();
+                return trySendAnnounce(header, body, timestamp);
+            }
+        }, new Runnable() {
+            public void run() {
+                mScheduler.resume();
+            }
+        });
+    }
+
+    /**
+     * adb shell dumpsys activity service .../LiveNotificationsService [reset]
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length > 0 && "reset".equals(args[0])) {
+            PipelineMetrics.reset();
+            mScheduler.resetMetrics();
+            writer.println("Latency histograms reset.");
+            return;
+        }
+        writer.println("LiveView Notifications");
+        writer.println("  worker running: " + mWorkerRunning + ", LiveView connected: " + (mLiveViewAdapter != null));
+        NotificationPipeline pipeline = MyAccessibilityService.getPipeline();
+        if (pipeline != null) {
+            writer.println("  queue: depth " + pipeline.getDepth() + "/" + pipeline.getCapacity()
+                    + ", enqueued " + pipeline.getEnqueuedCount() + ", dropped " + pipeline.getDroppedCount()
+                    + ", processed " + pipeline.getProcessedCount() + ", policy " + pipeline.getOverflowPolicy());
+        } else {
+            writer.println("  queue: accessibility service not running");
+        }
+        ApplicationLabelCache labelCache = ApplicationLabelCache.getInstance(this);
+        writer.println("  label cache: hits " + labelCache.getHits() + ", misses " + labelCache.getMisses());
+        DuplicateSuppressor duplicates = MyAccessibilityService.getDuplicateSuppressor();
+        writer.println("  duplicates: suppressed " + duplicates.getHits() + ", passed " + duplicates.getMisses()
+                + ", ttl " + duplicates.getTtlMs() + " ms");
+        writer.println("  rate limit: " + (mRateLimiter.isEnabled() ? mRateLimiter.getPerMinute() + "/min, burst " + mRateLimiter.getBurst() : "off")
+                + ", suppressed " + mRateLimiter.getSuppressedTotal() + ", summaries " + mRateLimiter.getSummaryCount());
+        // Don't open the database (and run an upgrade) on the binder thread
+        DatabaseOpenHelper helper = DatabaseOpenHelper.getOpenInstance();
+        if (helper != null) {
+            writer.println("  statement cache: hits " + helper.getStatementCacheHits() + ", misses " + helper.getStatementCacheMisses());
+            DatabaseBatchManager batchManager = helper.getBatchManager();
+            writer.println("  batch: queued " + batchManager.getQueuedCount() + ", flushes " + batchManager.getFlushCount()
+                    + ", last " + batchManager.getLastFlushSize() + " queries in " + batchManager.getLastFlushDurationMs() + " ms"
+                    + ", coalesced " + batchManager.getLastFlushEliminated() + " (total " + batchManager.getEliminatedCount() + ")"
+                    + ", dropped " + batchManager.getDroppedCount());
+        } else {
+            writer.println("  database not open");
+        }
+        PipelineMetrics.dump(writer);
+        mScheduler.dump(writer);
     }
 
     /**
@@ -0,0 +1,130 @@
+package nl.frankkie.livenotifications;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU-cache from packagename to application label.
+ * Getting a label from the PackageManager is a binder call into system_server,
+ * so both the ignore-filter and the announce use this cache.
+ * Entries are dropped when a package is added, replaced or removed,
+ * and all of them when the locale changes.
+ *
+ * @author FrankkieNL
+ */
+public class ApplicationLabelCache {
+
+    public static final int MAX_ENTRIES = 64;
+    /**
+     * Stored for packages that are not installed, so those are cached too.
+     */
+    private static final String NOT_FOUND = new String("<not found>");
+    private static ApplicationLabelCache instance;
+    private final PackageManager packageManager;
+    private final LinkedHashMap<String, String> labels;
+    private long hits = 0;
+    private long misses = 0;
+    //goes up with every invalidation, a lookup that ran meanwhile is not cached
+    private long generation = 0;
+
+    public static synchronized ApplicationLabelCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ApplicationLabelCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ApplicationLabelCache(Context context) {
+        packageManager = context.getPackageManager();
+        labels = new LinkedHashMap<String, String>(MAX_ENTRIES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        context.registerReceiver(packageReceiver, filter);
+        context.registerReceiver(packageReceiver, new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+
+    /**
+     * @param packageName packagename of the app
+     * @return the application label, or null when the package is not installed
+     */
+    public String getLabel(String packageName) {
+        long lookupGeneration;
+        synchronized (labels) {
+            String label = labels.get(packageName);
+            if (label != null) {
+                hits++;
+                return (label == NOT_FOUND) ? null : label;
+            }
+            misses++;
+            lookupGeneration = generation;
+        }
+        //PackageManager call outside of the lock
+        String label;
+        try {
+            ApplicationInfo applicationInfo = packageManager.getApplicationInfo(packageName, 0);
+            label = packageManager.getApplicationLabel(applicationInfo).toString();
+        } catch (PackageManager.NameNotFoundException e) {
+            label = NOT_FOUND;
+        }
+        synchronized (labels) {
+            //the label may be stale when the package or the locale changed during the lookup
+            if (generation == lookupGeneration) {
+                labels.put(packageName, label);
+            }
+        }
+        return (label == NOT_FOUND) ? null : label;
+    }
+
+    public void invalidate(String packageName) {
+        synchronized (labels) {
+            generation++;
+            labels.remove(packageName);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (labels) {
+            generation++;
+            labels.clear();
+        }
+    }
+
+    public long getHits() {
+        synchronized (labels) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (labels) {
+            return misses;
+        }
+    }
+
+    private final BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            if (data == null) {
+                invalidateAll();
+                return;
+            }
+            invalidate(data.getSchemeSpecificPart());
+        }
+    };
+}
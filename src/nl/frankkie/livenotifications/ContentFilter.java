@@ -0,0 +1,133 @@
+package nl.frankkie.livenotifications;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import nl.frankkie.livenotifications.databaserows.KeywordFilterItem;
+import nl.frankkie.livenotifications.databaserows.RegexFilterItem;
+
+/**
+ * Compiled keyword and regex rules on the notification text.
+ * All keywords are in one KeywordMatcher, the regexes are combined into one pattern
+ * for the ignore rules and one for the allow rules. Regexes with capturing groups are
+ * kept apart, combining would renumber their backreferences.
+ * An allow rule wins from an ignore rule, so "Downloading" can be ignored while
+ * "Download failed" still comes through.
+ *
+ * @author FrankkieNL
+ */
+public class ContentFilter {
+
+    private static final String TAG = "LiveNotifications_ContentFilter";
+    public static final ContentFilter EMPTY = new ContentFilter(Collections.<KeywordFilterItem>emptyList(),
+            Collections.<RegexFilterItem>emptyList());
+    private final KeywordMatcher keywordMatcher;
+    private final List<Pattern> ignorePatterns;
+    private final List<Pattern> allowPatterns;
+
+    public ContentFilter(List<KeywordFilterItem> keywordItems, List<RegexFilterItem> regexItems) {
+        List<String> ignoreKeywords = new ArrayList<String>();
+        List<String> allowKeywords = new ArrayList<String>();
+        for (KeywordFilterItem item : keywordItems) {
+            (item.allow ? allowKeywords : ignoreKeywords).add(item.keyword);
+        }
+        keywordMatcher = new KeywordMatcher(ignoreKeywords, allowKeywords);
+
+        List<Pattern> ignoreRegexes = new ArrayList<Pattern>();
+        List<Pattern> allowRegexes = new ArrayList<Pattern>();
+        for (RegexFilterItem item : regexItems) {
+            Pattern pattern = compile(item.pattern);
+            if (pattern != null) {
+                (item.allow ? allowRegexes : ignoreRegexes).add(pattern);
+            }
+        }
+        ignorePatterns = combine(ignoreRegexes);
+        allowPatterns = combine(allowRegexes);
+    }
+
+    /**
+     * @return the compiled regex, or null when it is empty or invalid
+     */
+    private static Pattern compile(String regex) {
+        if (regex == null || regex.length() == 0) {
+            return null;
+        }
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            Log.e(TAG, "Invalid regex filter, skipped: " + regex, e);
+            return null;
+        }
+    }
+
+    /**
+     * Combines the regexes without capturing groups into one pattern, the others stay as they are.
+     * When the combined pattern does not compile, all regexes are used one by one.
+     *
+     * @return patterns of which any matching means the rule matches
+     */
+    private static List<Pattern> combine(List<Pattern> patterns) {
+        List<Pattern> result = new ArrayList<Pattern>();
+        StringBuilder combined = new StringBuilder();
+        List<Pattern> combinedPatterns = new ArrayList<Pattern>();
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher("").groupCount() > 0) {
+                result.add(pattern);
+                continue;
+            }
+            if (combined.length() > 0) {
+                combined.append('|');
+            }
+            combined.append("(?:").append(pattern.pattern()).append(')');
+            combinedPatterns.add(pattern);
+        }
+        if (combinedPatterns.size() == 1) {
+            result.add(combinedPatterns.get(0));
+        } else if (combinedPatterns.size() > 1) {
+            try {
+                result.add(Pattern.compile(combined.toString()));
+            } catch (PatternSyntaxException e) {
+                Log.e(TAG, "Regex filters could not be combined, using them one by one", e);
+                result.addAll(combinedPatterns);
+            }
+        }
+        return result;
+    }
+
+    private static boolean findAny(List<Pattern> patterns, String text) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(text).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return keywordMatcher.isEmpty() && ignorePatterns.isEmpty() && allowPatterns.isEmpty();
+    }
+
+    /**
+     * @param text the extracted notification text
+     * @return false when an ignore rule matches and no allow rule does
+     */
+    public boolean allowText(String text) {
+        if (text == null || text.length() == 0 || isEmpty()) {
+            return true;
+        }
+        int keywords = keywordMatcher.match(text);
+        if ((keywords & KeywordMatcher.ALLOW) != 0) {
+            return true;
+        }
+        if (findAny(allowPatterns, text)) {
+            return true;
+        }
+        if ((keywords & KeywordMatcher.IGNORE) != 0) {
+            return false;
+        }
+        return !findAny(ignorePatterns, text);
+    }
+}
@@ -0,0 +1,104 @@
+package nl.frankkie.livenotifications;
+
+/**
+ * Remembers the last notifications as 64-bit hashes of (packagename, text)
+ * in a fixed-size ring buffer. Apps that re-post the same notification are
+ * caught here, before anything is sent to LiveView.
+ * Does not allocate when checking.
+ *
+ * @author FrankkieNL
+ */
+public class DuplicateSuppressor {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private final long[] hashes;
+    private final long[] timestamps;
+    private int next = 0;
+    private long ttlMs;
+    private long hits = 0;
+    private long misses = 0;
+
+    public DuplicateSuppressor(int size, long ttlMs) {
+        this.hashes = new long[size];
+        this.timestamps = new long[size];
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Checks if the same notification was first seen less than the TTL ago, and remembers this one.
+     *
+     * @param now current time in ms, like SystemClock.uptimeMillis()
+     * @return true when this is a duplicate and should be dropped
+     */
+    public synchronized boolean isDuplicate(String packageName, CharSequence text, long now) {
+        if (ttlMs <= 0) {
+            //turned off
+            return false;
+        }
+        long hash = hash(packageName, text);
+        for (int i = 0; i < hashes.length; i++) {
+            //timestamp 0 means empty slot
+            if (hashes[i] == hash && timestamps[i] != 0 && now - timestamps[i] <= ttlMs) {
+                //keep the first-seen time, a repeat after the TTL comes through again
+                hits++;
+                return true;
+            }
+        }
+        hashes[next] = hash;
+        timestamps[next] = (now == 0) ? 1 : now;
+        next = (next + 1) % hashes.length;
+        misses++;
+        return false;
+    }
+
+    public synchronized void setTtlMs(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    public synchronized long getTtlMs() {
+        return ttlMs;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = 0;
+            timestamps[i] = 0;
+        }
+        next = 0;
+    }
+
+    /**
+     * 64-bit FNV-1a over the chars of packagename and text.
+     */
+    static long hash(String packageName, CharSequence text) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, packageName);
+        //separator, so ("ab", "c") and ("a", "bc") differ
+        hash ^= 0xffff;
+        hash *= FNV_PRIME;
+        return hash(hash, text);
+    }
+
+    private static long hash(long hash, CharSequence s) {
+        if (s == null) {
+            return hash;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            hash ^= (c & 0xff);
+            hash *= FNV_PRIME;
+            hash ^= (c >>> 8);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
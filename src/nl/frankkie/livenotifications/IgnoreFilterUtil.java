@@ -1,13 +1,22 @@
 package nl.frankkie.livenotifications;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
-import android.database.Cursor;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
 import android.view.accessibility.AccessibilityEvent;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 import nl.frankkie.livenotifications.databaserows.IgnoreItem;
+import nl.frankkie.livenotifications.databaserows.KeywordFilterItem;
+import nl.frankkie.livenotifications.databaserows.RegexFilterItem;
+import nl.wotuu.database.DatabaseExecutor;
 import nl.wotuu.database.DatabaseOpenHelper;
+import nl.wotuu.database.DatabaseRow;
 
 /**
  *
@@ -15,16 +24,26 @@ import nl.wotuu.database.DatabaseOpenHelper;
  */
 public class IgnoreFilterUtil {
     
-    public static ArrayList<IgnoreItem> ignoreItems = null;
-    public static boolean ignoreItemsInvalidated = false;
+    //the current snapshot, swapped as a whole by publish()
+    private static volatile IgnoreRules rules = null;
+    private static final AtomicLong rulesVersion = new AtomicLong();
+    private static boolean resolveReceiverRegistered = false;
+    //labels of the installed apps, for the app label rules; guarded by the class lock
+    private static InstalledAppLabels installedAppLabels = null;
     
-    public static boolean allowNotification(Context context, AccessibilityEvent event) {
+    /**
+     * Cheap checks, done on the accessibility thread before the event is queued.
+     */
+    public static boolean isNotificationEvent(AccessibilityEvent event) {
         if (event == null) {
             return false;
         }
         if (event.getEventType() != AccessibilityEvent.TYPE_NOTIFICATION_STATE_CHANGED) {
             return false;
         }
+        if (event.getPackageName() == null || event.getClassName() == null) {
+            return false;
+        }
         //remove Toast-Messages, those don't count !!
         if (event.getPackageName().equals("android")) {
             return false;
@@ -32,46 +51,141 @@ public class IgnoreFilterUtil {
         if (event.getClassName().toString().equals("android.widget.Toast")) {
             return false;
         }
+        return true;
+    }
 
-        //Database
-        if (ignoreItems == null || ignoreItemsInvalidated) {
+    public static boolean allowNotification(Context context, NotificationSnapshot snapshot) {
+        if (snapshot == null || snapshot.packageName == null) {
+            return false;
+        }
+        
+        //Database, only when the prewarm didn't finish yet
+        IgnoreRules current = rules;
+        if (current == null) {
             refreshIgnoreItemsFromDatabase(context);
+            current = rules;
         }
         
-        PackageManager packageManager = context.getPackageManager();
-        String applicationName = "android";
-        try {
-            PackageInfo packageInfo = packageManager.getPackageInfo(event.getPackageName().toString(), 0);
-            applicationName = packageManager.getApplicationLabel(packageInfo.applicationInfo).toString();
-            for (IgnoreItem item : ignoreItems) {
-                if (item.appName.equalsIgnoreCase(applicationName)
-                        || item.packageName.equalsIgnoreCase(event.getPackageName().toString())) {
-                    return false;
-                }
-            }
-        } catch (PackageManager.NameNotFoundException exception) {
+        //app label rules are resolved to packagenames already, no label needed here
+        if (current.matcher.matchesPackageName(snapshot.packageName)) {
             return false;
         }
-        
-        return true;
+        //packages that can't be found are dropped, like before; the label is cached for the announce
+        return ApplicationLabelCache.getInstance(context).getLabel(snapshot.packageName) != null;
+    }
+
+    /**
+     * Keyword and regex rules, after the text is extracted.
+     * Call after allowNotification, that loads the rules.
+     */
+    public static boolean allowText(String notificationText) {
+        IgnoreRules current = rules;
+        return current == null || current.contentFilter.allowText(notificationText);
     }
     
-    public static void refreshIgnoreItemsFromDatabase(Context context) {
-        ignoreItems = new ArrayList<IgnoreItem>();
-        DatabaseOpenHelper databaseOpenHelper = DatabaseOpenHelper.createInstance(context);
-        Cursor cursor = databaseOpenHelper.readableDatabase.rawQuery("SELECT id FROM ignoreitem", null);
-        while (cursor.moveToNext()) {
-            IgnoreItem item = new IgnoreItem(cursor.getInt(0));
-            item.onLoad();
-            ignoreItems.add(item);
+    /**
+     * Opens the database and loads the ignore list on the database thread,
+     * so the first notification doesn't have to.
+     */
+    public static void prewarm(final Context context) {
+        registerResolveReceiver(context);
+        DatabaseExecutor executor = DatabaseExecutor.createInstance(context);
+        executor.open();
+        executor.submit(new Callable<List<IgnoreItem>>() {
+            public List<IgnoreItem> call() {
+                return refreshIgnoreItemsFromDatabase(context);
+            }
+        }, null);
+    }
+
+    /**
+     * @return the current snapshot, or null before the ignore-list is loaded
+     */
+    public static IgnoreRules getRules() {
+        return rules;
+    }
+
+    /**
+     * Builds a new snapshot of the items and swaps it in, resolving the app label rules
+     * against the installed apps. Writers are serialized, so versions are published in order.
+     */
+    public static synchronized IgnoreRules publish(Context context, List<IgnoreItem> items, ContentFilter contentFilter) {
+        if (installedAppLabels == null) {
+            installedAppLabels = new InstalledAppLabels(context.getPackageManager());
         }
-        cursor.close();
-        if (ignoreItems.size() == 0){
+        Set<String> labelPackageNames = IgnoreRules.resolveLabels(installedAppLabels, items);
+        IgnoreRules published = new IgnoreRules(rulesVersion.incrementAndGet(), items, labelPackageNames, contentFilter);
+        rules = published;
+        return published;
+    }
+
+    /**
+     * Resolves the app label rules of the current snapshot again, on the database thread.
+     *
+     * @param packageName the package that was added, replaced or removed; null to load all labels again
+     */
+    public static void resolveLabelsInBackground(final Context context, final String packageName) {
+        DatabaseExecutor.createInstance(context).submit(new Callable<IgnoreRules>() {
+            public IgnoreRules call() {
+                //same lock as publish(), a snapshot published meanwhile is not replaced by an older one
+                synchronized (IgnoreFilterUtil.class) {
+                    if (installedAppLabels != null) {
+                        if (packageName == null) {
+                            installedAppLabels.invalidateAll();
+                        } else {
+                            installedAppLabels.update(packageName);
+                        }
+                    }
+                    IgnoreRules current = rules;
+                    if (current == null || !current.matcher.hasAppNames()) {
+                        //no label rules, nothing changes
+                        return current;
+                    }
+                    return publish(context, current.items, current.contentFilter);
+                }
+            }
+        }, null);
+    }
+
+    /**
+     * Labels change with the locale, and apps come and go.
+     */
+    private static synchronized void registerResolveReceiver(Context context) {
+        if (resolveReceiverRegistered) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        appContext.registerReceiver(resolveReceiver, packageFilter);
+        appContext.registerReceiver(resolveReceiver, new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+        resolveReceiverRegistered = true;
+    }
+
+    private static final BroadcastReceiver resolveReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            resolveLabelsInBackground(context.getApplicationContext(), (data == null) ? null : data.getSchemeSpecificPart());
+        }
+    };
+
+    /**
+     * Loads the ignore-list and publishes it. Blocks on the database, don't call on the UI thread.
+     */
+    public static synchronized List<IgnoreItem> refreshIgnoreItemsFromDatabase(Context context) {
+        //waits for the prewarm if it is still opening the database
+        DatabaseOpenHelper databaseOpenHelper = DatabaseExecutor.createInstance(context).openNow();
+        ArrayList<IgnoreItem> items = new ArrayList<IgnoreItem>(DatabaseRow.loadAll(IgnoreItem.class));
+        if (items.size() == 0) {
             databaseOpenHelper.makeDefaultItems();
-            //retry
-            //I hope this won't StackOverflow :P
-            refreshIgnoreItemsFromDatabase(context);
+            items = new ArrayList<IgnoreItem>(DatabaseRow.loadAll(IgnoreItem.class));
         }
-        ignoreItemsInvalidated = false;
+        ContentFilter contentFilter = new ContentFilter(DatabaseRow.loadAll(KeywordFilterItem.class),
+                DatabaseRow.loadAll(RegexFilterItem.class));
+        return publish(context, items, contentFilter).items;
     }
 }
@@ -2,15 +2,16 @@ package nl.frankkie.livenotifications;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.TextView;
@@ -18,9 +19,14 @@ import android.widget.Toast;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import static nl.frankkie.livenotifications.IgnoreFilterUtil.ignoreItems;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import nl.frankkie.livenotifications.databaserows.IgnoreItem;
-import nl.wotuu.database.DatabaseOpenHelper;
+import nl.frankkie.livenotifications.databaserows.KeywordFilterItem;
+import nl.frankkie.livenotifications.databaserows.RegexFilterItem;
+import nl.wotuu.database.DatabaseExecutor;
+import nl.wotuu.database.DatabaseRow;
 
 /**
  *
@@ -29,11 +35,21 @@ import nl.wotuu.database.DatabaseOpenHelper;
 public class IgnoreListActivity extends Activity {
 
     LinearLayout listContainer;
+    //Database work runs on the DatabaseExecutor thread, refresh when it's done
+    DatabaseExecutor.Callback<DatabaseRow> refreshCallback = new DatabaseExecutor.Callback<DatabaseRow>() {
+        public void onResult(DatabaseRow result) {
+            refreshIgnoreList();
+        }
+
+        public void onError(Exception e) {
+            e.printStackTrace();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState); //To change body of generated methods, choose Tools | Templates.
-        DatabaseOpenHelper.createInstance(this);
+        DatabaseExecutor.createInstance(this);
         initUI();
     }
 
@@ -49,6 +65,16 @@ public class IgnoreListActivity extends Activity {
                 addPackagename();
             }
         });
+        findViewById(R.id.btn_ignore_add_keyword).setOnClickListener(new View.OnClickListener() {
+            public void onClick(View arg0) {
+                addTextFilter(false);
+            }
+        });
+        findViewById(R.id.btn_ignore_add_regex).setOnClickListener(new View.OnClickListener() {
+            public void onClick(View arg0) {
+                addTextFilter(true);
+            }
+        });
         loadIgnoreList();
     }
 
@@ -58,26 +84,52 @@ public class IgnoreListActivity extends Activity {
     }
 
     public void refreshIgnoreList() {
-        IgnoreFilterUtil.refreshIgnoreItemsFromDatabase(this);
+        final Context context = getApplicationContext();
+        DatabaseExecutor.getInstance().submit(new Callable<List<DatabaseRow>>() {
+            public List<DatabaseRow> call() {
+                //publishes the ignore-list and the text filters
+                ArrayList<DatabaseRow> rows = new ArrayList<DatabaseRow>(IgnoreFilterUtil.refreshIgnoreItemsFromDatabase(context));
+                rows.addAll(DatabaseRow.loadAll(KeywordFilterItem.class));
+                rows.addAll(DatabaseRow.loadAll(RegexFilterItem.class));
+                return rows;
+            }
+        }, new DatabaseExecutor.Callback<List<DatabaseRow>>() {
+            public void onResult(List<DatabaseRow> rows) {
+                showIgnoreList(rows);
+            }
+
+            public void onError(Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    public void showIgnoreList(List<DatabaseRow> rows) {
+        if (isFinishing()) {
+            return;
+        }
         listContainer.removeAllViews();
         LayoutInflater inflater = getLayoutInflater();
-        for (final IgnoreItem item : ignoreItems) {
+        for (final DatabaseRow item : rows) {
             View row = inflater.inflate(R.layout.ignore_list_row, listContainer, false);
             TextView tv1 = (TextView) row.findViewById(R.id.ignore_list_row_tv);
-            tv1.setText(item.appName + " - " + item.packageName);
             TextView tv2 = (TextView) row.findViewById(R.id.ignore_list_row_tv2);
-            tv2.setText(item.description);
-            final TextView tvHidden = (TextView) row.findViewById(R.id.ignore_list_row_tv_hidden);
-            tvHidden.setText("" + item.id); //yes, it has to be a string
+            if (item instanceof IgnoreItem) {
+                IgnoreItem ignoreItem = (IgnoreItem) item;
+                tv1.setText(ignoreItem.appName + " - " + ignoreItem.packageName);
+                tv2.setText(ignoreItem.description);
+            } else if (item instanceof KeywordFilterItem) {
+                KeywordFilterItem keywordItem = (KeywordFilterItem) item;
+                tv1.setText(getString(R.string.ignore_keyword) + ": " + keywordItem.keyword);
+                tv2.setText(keywordItem.allow ? getString(R.string.ignore_allowed) : keywordItem.description);
+            } else if (item instanceof RegexFilterItem) {
+                RegexFilterItem regexItem = (RegexFilterItem) item;
+                tv1.setText(getString(R.string.ignore_regex) + ": " + regexItem.pattern);
+                tv2.setText(regexItem.allow ? getString(R.string.ignore_allowed) : regexItem.description);
+            }
             row.findViewById(R.id.ignore_list_row_delete).setOnClickListener(new View.OnClickListener() {
                 public void onClick(View arg0) {
-                    try {
-                        IgnoreItem item = new IgnoreItem(Integer.parseInt(tvHidden.getText().toString()));
-                        item.onDelete();
-                        refreshIgnoreList();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+                    item.onDeleteAsync(refreshCallback);
                 }
             });
             listContainer.addView(row);
@@ -127,6 +179,48 @@ public class IgnoreListActivity extends Activity {
         b.create().show();        
     }
 
+    /**
+     * Keyword or regex rule on the notification text.
+     */
+    public void addTextFilter(final boolean regex) {
+        AlertDialog.Builder b = new AlertDialog.Builder(this);
+        b.setTitle(getString(regex ? R.string.ignore_add_regex : R.string.ignore_add_keyword));
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        final EditText ed = new EditText(this);
+        layout.addView(ed);
+        final CheckBox allow = new CheckBox(this);
+        allow.setText(R.string.ignore_allow);
+        layout.addView(allow);
+        b.setView(layout);
+        b.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface arg0, int arg1) {
+                String text = ed.getText().toString();
+                if (text.length() == 0) {
+                    return;
+                }
+                if (regex) {
+                    try {
+                        Pattern.compile(text);
+                    } catch (PatternSyntaxException e) {
+                        Toast.makeText(IgnoreListActivity.this, R.string.ignore_invalid_regex, Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    RegexFilterItem item = new RegexFilterItem();
+                    item.pattern = text;
+                    item.allow = allow.isChecked();
+                    item.onInsertAsync(refreshCallback);
+                } else {
+                    KeywordFilterItem item = new KeywordFilterItem();
+                    item.keyword = text;
+                    item.allow = allow.isChecked();
+                    item.onInsertAsync(refreshCallback);
+                }
+            }
+        });
+        b.create().show();
+    }
+
     public void addToList(String packageName){
          PackageManager packageManager = getPackageManager();
         String applicationName = "android";
@@ -144,7 +238,6 @@ public class IgnoreListActivity extends Activity {
         ignoreItem.appName = appName;
         ignoreItem.description = description;
         ignoreItem.packageName = packageName;
-        ignoreItem.onInsert();
-        refreshIgnoreList();
+        ignoreItem.onInsertAsync(refreshCallback);
     }
 }
@@ -0,0 +1,146 @@
+package nl.frankkie.livenotifications;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import nl.frankkie.livenotifications.databaserows.IgnoreItem;
+
+/**
+ * Compiled form of the ignore-list.
+ * Package names and app labels are kept in case-folded hash sets, packagenames
+ * ending with a wildcard (like com.google.*) go into a prefix trie.
+ * So a lookup does not depend on the amount of ignore-rules.
+ * App label rules can be resolved to the packagenames of the installed apps with that label,
+ * then matchesPackageName covers them too.
+ *
+ * @author FrankkieNL
+ */
+public class IgnoreMatcher {
+
+    public static final char WILDCARD = '*';
+
+    private final HashSet<String> packageNames = new HashSet<String>();
+    private final HashSet<String> appNames = new HashSet<String>();
+    private final TrieNode packagePrefixes = new TrieNode();
+    private boolean hasPackagePrefixes = false;
+
+    public IgnoreMatcher(List<IgnoreItem> ignoreItems) {
+        this(ignoreItems, null);
+    }
+
+    /**
+     * @param labelPackageNames packagenames of the apps matched by the app label rules, or null
+     */
+    public IgnoreMatcher(List<IgnoreItem> ignoreItems, Collection<String> labelPackageNames) {
+        for (IgnoreItem item : ignoreItems) {
+            addPackageName(item.packageName);
+            addAppName(item.appName);
+        }
+        if (labelPackageNames != null) {
+            for (String packageName : labelPackageNames) {
+                packageNames.add(fold(packageName));
+            }
+        }
+    }
+
+    private void addPackageName(String packageName) {
+        if (packageName == null || packageName.length() == 0) {
+            return;
+        }
+        String folded = fold(packageName);
+        int wildcard = folded.indexOf(WILDCARD);
+        if (wildcard < 0) {
+            packageNames.add(folded);
+            return;
+        }
+        //everything after the wildcard is ignored, com.google.* == com.google.
+        TrieNode node = packagePrefixes;
+        for (int i = 0; i < wildcard; i++) {
+            node = node.getOrCreateChild(folded.charAt(i));
+        }
+        node.terminal = true;
+        hasPackagePrefixes = true;
+    }
+
+    private void addAppName(String appName) {
+        if (appName == null || appName.length() == 0) {
+            return;
+        }
+        appNames.add(fold(appName));
+    }
+
+    /**
+     * @param packageName packagename of the app that sent the notification
+     * @return true when a packagename-rule or wildcard-rule matches
+     */
+    public boolean matchesPackageName(String packageName) {
+        if (packageName == null) {
+            return false;
+        }
+        String folded = fold(packageName);
+        if (packageNames.contains(folded)) {
+            return true;
+        }
+        if (!hasPackagePrefixes) {
+            return false;
+        }
+        TrieNode node = packagePrefixes;
+        for (int i = 0; i < folded.length(); i++) {
+            if (node.terminal) {
+                return true;
+            }
+            node = node.getChild(folded.charAt(i));
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.terminal;
+    }
+
+    public boolean hasAppNames() {
+        return !appNames.isEmpty();
+    }
+
+    /**
+     * @param appName (localized) label of the app that sent the notification
+     * @return true when an appname-rule matches
+     */
+    public boolean matchesAppName(String appName) {
+        return appName != null && appNames.contains(fold(appName));
+    }
+
+    public boolean matches(String packageName, String appName) {
+        return matchesPackageName(packageName) || matchesAppName(appName);
+    }
+
+    private static String fold(String s) {
+        return s.toLowerCase(Locale.US);
+    }
+
+    private static class TrieNode {
+
+        HashMap<Character, TrieNode> children;
+        boolean terminal = false;
+
+        TrieNode getChild(char c) {
+            if (children == null) {
+                return null;
+            }
+            return children.get(c);
+        }
+
+        TrieNode getOrCreateChild(char c) {
+            if (children == null) {
+                children = new HashMap<Character, TrieNode>();
+            }
+            TrieNode child = children.get(c);
+            if (child == null) {
+                child = new TrieNode();
+                children.put(c, child);
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package nl.frankkie.livenotifications;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import nl.frankkie.livenotifications.databaserows.IgnoreItem;
+
+/**
+ * Immutable snapshot of the ignore-list and its compiled matcher.
+ * A new snapshot is built for every change and published as a whole, so a reader
+ * never sees a half-built list. The version goes up with every published snapshot,
+ * anything derived from the rules can keep the version it was built for.
+ * App label rules are resolved to packagenames when the snapshot is built,
+ * so checking a notification never needs the (localized) label.
+ * The keyword and regex rules on the notification text are part of the snapshot too.
+ *
+ * @author FrankkieNL
+ */
+public class IgnoreRules {
+
+    public final long version;
+    /**
+     * Read-only, don't modify the items either.
+     */
+    public final List<IgnoreItem> items;
+    public final IgnoreMatcher matcher;
+    /**
+     * Packagenames of the installed apps matched by the app label rules.
+     */
+    public final Set<String> labelPackageNames;
+    public final ContentFilter contentFilter;
+
+    public IgnoreRules(long version, List<IgnoreItem> items, Collection<String> labelPackageNames,
+            ContentFilter contentFilter) {
+        this.version = version;
+        this.items = Collections.unmodifiableList(new ArrayList<IgnoreItem>(items));
+        this.labelPackageNames = Collections.unmodifiableSet(new HashSet<String>(labelPackageNames));
+        this.matcher = new IgnoreMatcher(this.items, this.labelPackageNames);
+        this.contentFilter = contentFilter;
+    }
+
+    /**
+     * Finds the installed apps with a label that an app label rule matches.
+     * The first call loads the labels of all installed apps, don't call on the UI thread.
+     *
+     * @param installedApps null to skip resolving
+     * @return the packagenames of those apps
+     */
+    public static Set<String> resolveLabels(InstalledAppLabels installedApps, List<IgnoreItem> items) {
+        IgnoreMatcher labelMatcher = new IgnoreMatcher(items);
+        if (installedApps == null || !labelMatcher.hasAppNames()) {
+            return new HashSet<String>();
+        }
+        return installedApps.findPackageNames(labelMatcher);
+    }
+}
@@ -0,0 +1,77 @@
+package nl.frankkie.livenotifications;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Labels of all installed apps, for resolving the app label rules of the ignore-list.
+ * Loaded with one pass over the installed apps, after that only the packages of the
+ * package broadcasts are looked up again. When the locale changes everything is loaded again.
+ * Loading goes over all installed apps, don't call on the UI thread.
+ *
+ * @author FrankkieNL
+ */
+public class InstalledAppLabels {
+
+    private final PackageManager packageManager;
+    //packagename to label, null until loaded
+    private HashMap<String, String> labels = null;
+
+    public InstalledAppLabels(PackageManager packageManager) {
+        this.packageManager = packageManager;
+    }
+
+    /**
+     * @return the packagenames of the installed apps with a label the matcher matches
+     */
+    public synchronized Set<String> findPackageNames(IgnoreMatcher labelMatcher) {
+        if (labels == null) {
+            labels = new HashMap<String, String>();
+            for (ApplicationInfo info : packageManager.getInstalledApplications(0)) {
+                CharSequence label = packageManager.getApplicationLabel(info);
+                if (label != null) {
+                    labels.put(info.packageName, label.toString());
+                }
+            }
+        }
+        Set<String> packageNames = new HashSet<String>();
+        for (Map.Entry<String, String> entry : labels.entrySet()) {
+            if (labelMatcher.matchesAppName(entry.getValue())) {
+                packageNames.add(entry.getKey());
+            }
+        }
+        return packageNames;
+    }
+
+    /**
+     * Looks up the label of one package again, after it was added, replaced or removed.
+     */
+    public synchronized void update(String packageName) {
+        if (labels == null) {
+            //not loaded yet, the package is picked up when it is
+            return;
+        }
+        try {
+            ApplicationInfo info = packageManager.getApplicationInfo(packageName, 0);
+            CharSequence label = packageManager.getApplicationLabel(info);
+            if (label != null) {
+                labels.put(packageName, label.toString());
+            } else {
+                labels.remove(packageName);
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            labels.remove(packageName);
+        }
+    }
+
+    /**
+     * All labels are loaded again on next use, for example after a locale change.
+     */
+    public synchronized void invalidateAll() {
+        labels = null;
+    }
+}
@@ -0,0 +1,143 @@
+package nl.frankkie.livenotifications;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton over all keyword rules.
+ * The text is scanned once, char by char, whatever the amount of keywords.
+ * Matching is case-insensitive, chars are folded with Character.toLowerCase,
+ * so the text does not have to be copied.
+ *
+ * @author FrankkieNL
+ */
+public class KeywordMatcher {
+
+    public static final int IGNORE = 1;
+    public static final int ALLOW = 2;
+
+    //per state, state 0 is the root
+    private final char[][] keys;
+    private final int[][] next;
+    private final int[] fail;
+    private final int[] output;
+
+    public KeywordMatcher(List<String> ignoreKeywords, List<String> allowKeywords) {
+        Node root = new Node();
+        for (String keyword : ignoreKeywords) {
+            add(root, keyword, IGNORE);
+        }
+        for (String keyword : allowKeywords) {
+            add(root, keyword, ALLOW);
+        }
+
+        //breadth first, so the fail state of a node is numbered before the node
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(root);
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            node.state = i;
+            for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+                Node child = entry.getValue();
+                child.fail = (node == root) ? root : failTarget(root, node.fail, entry.getKey());
+                child.output |= child.fail.output;
+                nodes.add(child);
+            }
+        }
+
+        int count = nodes.size();
+        keys = new char[count][];
+        next = new int[count][];
+        fail = new int[count];
+        output = new int[count];
+        for (Node node : nodes) {
+            int size = node.children.size();
+            char[] nodeKeys = new char[size];
+            int[] nodeNext = new int[size];
+            int j = 0;
+            //TreeMap, so the keys are sorted for the binary search
+            for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+                nodeKeys[j] = entry.getKey();
+                nodeNext[j] = entry.getValue().state;
+                j++;
+            }
+            keys[node.state] = nodeKeys;
+            next[node.state] = nodeNext;
+            fail[node.state] = (node.fail == null) ? 0 : node.fail.state;
+            output[node.state] = node.output;
+        }
+    }
+
+    private static void add(Node root, String keyword, int flag) {
+        if (keyword == null || keyword.length() == 0) {
+            return;
+        }
+        Node node = root;
+        for (int i = 0; i < keyword.length(); i++) {
+            char c = Character.toLowerCase(keyword.charAt(i));
+            Node child = node.children.get(c);
+            if (child == null) {
+                child = new Node();
+                node.children.put(c, child);
+            }
+            node = child;
+        }
+        node.output |= flag;
+    }
+
+    private static Node failTarget(Node root, Node node, char c) {
+        while (true) {
+            Node child = node.children.get(c);
+            if (child != null) {
+                return child;
+            }
+            if (node == root) {
+                return root;
+            }
+            node = node.fail;
+        }
+    }
+
+    public boolean isEmpty() {
+        return keys[0].length == 0;
+    }
+
+    /**
+     * @param text notification text
+     * @return IGNORE and/or ALLOW when a keyword of that kind is in the text, 0 otherwise
+     */
+    public int match(CharSequence text) {
+        int state = 0;
+        int found = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            while (true) {
+                int index = Arrays.binarySearch(keys[state], c);
+                if (index >= 0) {
+                    state = next[state][index];
+                    break;
+                }
+                if (state == 0) {
+                    break;
+                }
+                state = fail[state];
+            }
+            found |= output[state];
+            if (found == (IGNORE | ALLOW)) {
+                return found;
+            }
+        }
+        return found;
+    }
+
+    private static class Node {
+
+        final TreeMap<Character, Node> children = new TreeMap<Character, Node>();
+        Node fail;
+        int output = 0;
+        int state;
+    }
+}
@@ -8,7 +8,7 @@ import android.os.Bundle;
 import android.view.View;
 import android.widget.Button;
 import android.widget.Toast;
-import nl.wotuu.database.DatabaseOpenHelper;
+import nl.wotuu.database.DatabaseExecutor;
 
 public class MainActivity extends Activity {
 
@@ -18,7 +18,8 @@ public class MainActivity extends Activity {
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        DatabaseOpenHelper.createInstance(this);
+        //Open the database in the background, not on the UI thread
+        DatabaseExecutor.createInstance(this).open();
         setContentView(R.layout.main);
 
         Button btn = (Button) findViewById(R.id.btn);
@@ -1,17 +1,12 @@
 package nl.frankkie.livenotifications;
 
 import android.accessibilityservice.AccessibilityService;
-import android.app.Notification;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
-import android.widget.RemoteViews;
 import com.sonyericsson.extras.liveview.plugins.livenotifications.LiveNotificationsService;
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import nl.wotuu.database.DatabaseOpenHelper;
 
 /**
@@ -20,36 +15,173 @@ import nl.wotuu.database.DatabaseOpenHelper;
  */
 public class MyAccessibilityService extends AccessibilityService {
 
+    // Preferences - notification queue, the capacity is used when the service starts
+    private static final String QUEUE_CAPACITY = "queueCapacity";
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+    private static final String QUEUE_OVERFLOW_POLICY = "queueOverflowPolicy";
+    private static final NotificationPipeline.OverflowPolicy DEFAULT_QUEUE_OVERFLOW_POLICY = NotificationPipeline.OverflowPolicy.DROP_OLDEST;
+    private static final String QUEUE_BLOCK_TIMEOUT = "queueBlockTimeout";
+    private static final long DEFAULT_QUEUE_BLOCK_TIMEOUT_MS = 50;
+    // Preferences - duplicate notifications
+    private static final String DUPLICATE_TTL = "duplicateTtl";
+    private static final long DEFAULT_DUPLICATE_TTL_MS = 60000;
+    private static final int DUPLICATE_BUFFER_SIZE = 64;
+    private static NotificationPipeline pipeline;
+    private static final DuplicateSuppressor duplicateSuppressor = new DuplicateSuppressor(DUPLICATE_BUFFER_SIZE, DEFAULT_DUPLICATE_TTL_MS);
+    private final NotificationTextExtractor textExtractor = new NotificationTextExtractor();
+
+    public static DuplicateSuppressor getDuplicateSuppressor() {
+        return duplicateSuppressor;
+    }
+
+    /**
+     * @return the pipeline of the running service, or null
+     */
+    public static NotificationPipeline getPipeline() {
+        return pipeline;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        pipeline = new NotificationPipeline(readInt(prefs, QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY), readOverflowPolicy(prefs),
+                readInt(prefs, QUEUE_BLOCK_TIMEOUT, (int) DEFAULT_QUEUE_BLOCK_TIMEOUT_MS),
+                new NotificationPipeline.Processor() {
+                    public void process(NotificationSnapshot snapshot) {
+                        processNotification(snapshot);
+                    }
+                });
+        pipeline.start();
+        duplicateSuppressor.setTtlMs(readLong(prefs, DUPLICATE_TTL, DEFAULT_DUPLICATE_TTL_MS));
+        prefs.registerOnSharedPreferenceChangeListener(prefChangeListener);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(prefChangeListener);
+        if (pipeline != null) {
+            pipeline.stop();
+            pipeline = null;
+        }
+        DatabaseOpenHelper.shutdownBatchManager();
+    }
+
+    // Kept in a field, SharedPreferences only holds a weak reference to it
+    private final SharedPreferences.OnSharedPreferenceChangeListener prefChangeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            if (DUPLICATE_TTL.equals(key)) {
+                duplicateSuppressor.setTtlMs(readLong(prefs, DUPLICATE_TTL, DEFAULT_DUPLICATE_TTL_MS));
+                Log.d("LiveNotifications_Accessibilty", "Preferences changed - duplicate TTL: " + duplicateSuppressor.getTtlMs());
+                return;
+            }
+            NotificationPipeline p = pipeline;
+            if (p == null) {
+                return;
+            }
+            if (QUEUE_OVERFLOW_POLICY.equals(key)) {
+                p.setOverflowPolicy(readOverflowPolicy(prefs));
+                Log.d("LiveNotifications_Accessibilty", "Preferences changed - overflow policy: " + p.getOverflowPolicy());
+            } else if (QUEUE_BLOCK_TIMEOUT.equals(key)) {
+                p.setBlockTimeoutMs(readInt(prefs, QUEUE_BLOCK_TIMEOUT, (int) DEFAULT_QUEUE_BLOCK_TIMEOUT_MS));
+            }
+        }
+    };
+
+    private static NotificationPipeline.OverflowPolicy readOverflowPolicy(SharedPreferences prefs) {
+        try {
+            return NotificationPipeline.OverflowPolicy.valueOf(
+                    prefs.getString(QUEUE_OVERFLOW_POLICY, DEFAULT_QUEUE_OVERFLOW_POLICY.name()));
+        } catch (IllegalArgumentException e) {
+            return DEFAULT_QUEUE_OVERFLOW_POLICY;
+        }
+    }
+
+    private static long readLong(SharedPreferences prefs, String key, long defaultValue) {
+        try {
+            return Long.parseLong(prefs.getString(key, Long.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static int readInt(SharedPreferences prefs, String key, int defaultValue) {
+        try {
+            return Integer.parseInt(prefs.getString(key, Integer.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        DatabaseOpenHelper.flushQueuedQueries();
+    }
+
     @Override
     protected void onServiceConnected() {
+        //open the database and load the ignore list before the first notification
+        IgnoreFilterUtil.prewarm(this);
         //API16+ !!!!
         //getServiceInfo().eventTypes = AccessibilityEvent.TYPE_NOTIFICATION_STATE_CHANGED;
     }
 
     @Override
     public void onAccessibilityEvent(AccessibilityEvent arg0) {
-        DatabaseOpenHelper.createInstance(this);
-        if (!IgnoreFilterUtil.allowNotification(this, arg0)) {
+        //keep this fast, the real work is done on the pipeline worker
+        if (!IgnoreFilterUtil.isNotificationEvent(arg0)) {
+            return;
+        }
+        NotificationPipeline p = pipeline;
+        if (p != null) {
+            p.enqueue(NotificationSnapshot.of(arg0));
+        }
+    }
+
+    /**
+     * Called on the pipeline worker thread.
+     */
+    public void processNotification(NotificationSnapshot snapshot) {
+        long start = System.nanoTime();
+        PipelineMetrics.record(PipelineMetrics.Stage.QUEUE, start - snapshot.createdNanos);
+        boolean allowed = IgnoreFilterUtil.allowNotification(this, snapshot);
+        long filtered = System.nanoTime();
+        PipelineMetrics.record(PipelineMetrics.Stage.FILTER, filtered - start);
+        if (!allowed) {
             return;
         }
 
         //try to get some text from the notification
-        String notificationText = getNotificationText(arg0);
+        String notificationText = textExtractor.getNotificationText(snapshot.notification);
+        PipelineMetrics.record(PipelineMetrics.Stage.TEXT, System.nanoTime() - filtered);
 
-        Log.e("LiveNotifications_Accessibilty", arg0.toString());
+        //keyword and regex rules on the text
+        if (!IgnoreFilterUtil.allowText(notificationText)) {
+            return;
+        }
+
+        //without text, repeats can not be told apart from new notifications
+        if (notificationText.length() > 0
+                && duplicateSuppressor.isDuplicate(snapshot.packageName, notificationText, SystemClock.uptimeMillis())) {
+            return;
+        }
+
+        Log.d("LiveNotifications_Accessibilty", snapshot.toString());
         //Toast.makeText(this, "Notification from: " + arg0.getPackageName(), Toast.LENGTH_SHORT).show();
 
         //show on LiveView
         LiveNotificationsService liveViewService = LiveNotificationsService.getInstance();
         if (liveViewService != null) {
-            String applicationName = "Unknown Application";
-            try {
-                PackageInfo packageInfo = getPackageManager().getPackageInfo(arg0.getPackageName().toString(), 0);
-                applicationName = getPackageManager().getApplicationLabel(packageInfo.applicationInfo).toString();
-            } catch (PackageManager.NameNotFoundException ex) {
-                Logger.getLogger(MyAccessibilityService.class.getName()).log(Level.SEVERE, null, ex);
+            long labelStart = System.nanoTime();
+            String applicationName = ApplicationLabelCache.getInstance(this).getLabel(snapshot.packageName);
+            if (applicationName == null) {
+                applicationName = "Unknown Application";
             }
-            liveViewService.sendAnnounce(getString(R.string.notification), applicationName + " " + getString(R.string.send_a_notification) + "\n" + notificationText);
+            PipelineMetrics.record(PipelineMetrics.Stage.LABEL, System.nanoTime() - labelStart);
+            liveViewService.announceNotification(snapshot.packageName, applicationName, notificationText, snapshot.eventTime,
+                    snapshot.priority, snapshot.category);
         }
     }
 
@@ -57,49 +189,4 @@ public class MyAccessibilityService extends AccessibilityService {
     public void onInterrupt() {
         //do nothin'
     }
-
-    public String getNotificationText(AccessibilityEvent event) {
-        //http://stackoverflow.com/questions/9292032/extract-notification-text-from-parcelable-contentview-or-contentintent
-        String answer = "";
-        try {
-            Notification notification = (Notification) event.getParcelableData();
-            RemoteViews views = notification.contentView;
-            Class secretClass = views.getClass();
-
-            Field outerFields[] = secretClass.getDeclaredFields();
-            for (int i = 0; i < outerFields.length; i++) {
-                if (!outerFields[i].getName().equals("mActions")) {
-                    continue;
-                }
-
-                outerFields[i].setAccessible(true);
-
-                ArrayList<Object> actions =
-                        (ArrayList<Object>) outerFields[i].get(views);
-                for (Object action : actions) {
-                    Field innerFields[] = action.getClass().getDeclaredFields();
-
-                    Object value = null;
-                    String methodName = null;
-                    for (Field field : innerFields) {
-                        field.setAccessible(true);
-                        if (field.getName().equals("value")) {
-                            value = field.get(action);
-                        } else if (field.getName().equals("methodName")) {
-                            methodName = field.get(action).toString();
-                        }
-                    }
-                    if (methodName.equals("setText")) {
-                        if (!value.toString().equals("")) {
-                            answer += value.toString() + "\n";
-                        }
-                    }
-                }
-                return answer;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return "";
-    }
 }
@@ -0,0 +1,166 @@
+package nl.frankkie.livenotifications;
+
+import android.os.Process;
+import android.util.Log;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue with one worker thread.
+ * The accessibility callback only puts a NotificationSnapshot in the queue,
+ * filtering, text-extraction and sending to LiveView happens on the worker.
+ * So a slow LiveView connection does not hold up accessibility events.
+ *
+ * @author FrankkieNL
+ */
+public class NotificationPipeline {
+
+    private static final String TAG = "LiveNotifications_Pipeline";
+
+    /**
+     * What to do when the queue is full.
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * Remove the oldest snapshot from the queue to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Throw away the new snapshot.
+         */
+        DROP_NEWEST,
+        /**
+         * Wait for room, at most blockTimeoutMs; throw away the new snapshot after that.
+         */
+        BLOCK
+    }
+
+    public interface Processor {
+
+        void process(NotificationSnapshot snapshot);
+    }
+    private final ArrayBlockingQueue<NotificationSnapshot> queue;
+    private final Processor processor;
+    private volatile OverflowPolicy overflowPolicy;
+    private volatile long blockTimeoutMs;
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private Thread worker;
+
+    public NotificationPipeline(int capacity, OverflowPolicy overflowPolicy, long blockTimeoutMs, Processor processor) {
+        this.queue = new ArrayBlockingQueue<NotificationSnapshot>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMs = blockTimeoutMs;
+        this.processor = processor;
+    }
+
+    public synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        worker = new Thread(new Runnable() {
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                while (!Thread.currentThread().isInterrupted()) {
+                    NotificationSnapshot snapshot;
+                    try {
+                        snapshot = queue.take();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    try {
+                        processor.process(snapshot);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Failed to process " + snapshot, e);
+                    }
+                    processed.incrementAndGet();
+                }
+            }
+        }, "NotificationPipeline");
+        worker.start();
+    }
+
+    /**
+     * Stops the worker, snapshots still in the queue are thrown away.
+     */
+    public synchronized void stop() {
+        if (worker == null) {
+            return;
+        }
+        worker.interrupt();
+        worker = null;
+        queue.clear();
+    }
+
+    /**
+     * Called on the accessibility thread.
+     *
+     * @return false when the snapshot (or an older one) was dropped
+     */
+    public boolean enqueue(NotificationSnapshot snapshot) {
+        enqueued.incrementAndGet();
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                boolean droppedOne = false;
+                while (!queue.offer(snapshot)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                        droppedOne = true;
+                    }
+                }
+                return !droppedOne;
+            case BLOCK:
+                try {
+                    if (queue.offer(snapshot, blockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                dropped.incrementAndGet();
+                return false;
+            case DROP_NEWEST:
+            default:
+                if (queue.offer(snapshot)) {
+                    return true;
+                }
+                dropped.incrementAndGet();
+                return false;
+        }
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setBlockTimeoutMs(long blockTimeoutMs) {
+        this.blockTimeoutMs = blockTimeoutMs;
+    }
+
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public int getCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getProcessedCount() {
+        return processed.get();
+    }
+}
@@ -0,0 +1,106 @@
+package nl.frankkie.livenotifications;
+
+import android.app.Notification;
+import android.os.Build;
+import android.os.Parcelable;
+import android.view.accessibility.AccessibilityEvent;
+import java.lang.reflect.Field;
+
+/**
+ * Immutable copy of the parts of an AccessibilityEvent we need.
+ * AccessibilityEvents are recycled after onAccessibilityEvent returns,
+ * so the event itself can not be handed to another thread.
+ *
+ * @author FrankkieNL
+ */
+public final class NotificationSnapshot {
+
+    public final int eventType;
+    public final String packageName;
+    public final String className;
+    /**
+     * In SystemClock.uptimeMillis() time base, like AccessibilityEvent.getEventTime().
+     */
+    public final long eventTime;
+    /**
+     * Can be null, when the event did not carry a Notification.
+     */
+    public final Notification notification;
+    /**
+     * Notification.priority (API16+), PRIORITY_MIN (-2) to PRIORITY_MAX (2), 0 when unknown.
+     */
+    public final int priority;
+    /**
+     * Notification.category (API21+) like "call" or "msg", null when unknown.
+     */
+    public final String category;
+    /**
+     * System.nanoTime() when the snapshot was made, for the queue latency.
+     */
+    public final long createdNanos;
+    //Notification.category is newer than the SDK we build against
+    private static final Field categoryField = findCategoryField();
+
+    public NotificationSnapshot(int eventType, String packageName, String className, long eventTime, Notification notification) {
+        this(eventType, packageName, className, eventTime, notification, 0, null);
+    }
+
+    public NotificationSnapshot(int eventType, String packageName, String className, long eventTime, Notification notification,
+            int priority, String category) {
+        this.eventType = eventType;
+        this.packageName = packageName;
+        this.className = className;
+        this.eventTime = eventTime;
+        this.notification = notification;
+        this.priority = priority;
+        this.category = category;
+        this.createdNanos = System.nanoTime();
+    }
+
+    public static NotificationSnapshot of(AccessibilityEvent event) {
+        Parcelable data = event.getParcelableData();
+        Notification notification = (data instanceof Notification) ? (Notification) data : null;
+        return new NotificationSnapshot(event.getEventType(),
+                (event.getPackageName() == null) ? null : event.getPackageName().toString(),
+                (event.getClassName() == null) ? null : event.getClassName().toString(),
+                event.getEventTime(),
+                notification,
+                getPriority(notification),
+                getCategory(notification));
+    }
+
+    private static int getPriority(Notification notification) {
+        if (notification == null || Build.VERSION.SDK_INT < 16) {
+            return 0;
+        }
+        return notification.priority;
+    }
+
+    private static String getCategory(Notification notification) {
+        if (notification == null || categoryField == null) {
+            return null;
+        }
+        try {
+            return (String) categoryField.get(notification);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Field findCategoryField() {
+        if (Build.VERSION.SDK_INT < 21) {
+            return null;
+        }
+        try {
+            return Notification.class.getField("category");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationSnapshot{packageName=" + packageName + ", className=" + className
+                + ", eventTime=" + eventTime + ", priority=" + priority + ", category=" + category + "}";
+    }
+}
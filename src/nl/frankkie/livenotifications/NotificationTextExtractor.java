@@ -0,0 +1,127 @@
+package nl.frankkie.livenotifications;
+
+import android.app.Notification;
+import android.util.Log;
+import android.widget.RemoteViews;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gets the text out of the contentView of a notification.
+ * http://stackoverflow.com/questions/9292032/extract-notification-text-from-parcelable-contentview-or-contentintent
+ *
+ * The Field-handles are looked up once per class and reused,
+ * classes without methodName / value fields are remembered as unsupported.
+ * Not thread-safe, because of the reused StringBuilder; use one extractor per thread.
+ *
+ * @author FrankkieNL
+ */
+public class NotificationTextExtractor {
+
+    private static final String TAG = "LiveNotifications_TextExtractor";
+    private static final ConcurrentHashMap<Class<?>, ActionAccessor> accessors = new ConcurrentHashMap<Class<?>, ActionAccessor>();
+    /**
+     * Negative cache entry, for action-classes that don't hold text.
+     */
+    private static final ActionAccessor UNSUPPORTED = new ActionAccessor(null, null);
+    private static volatile Field actionsField;
+    private static volatile boolean actionsFieldResolved = false;
+    private final StringBuilder builder = new StringBuilder();
+
+    public String getNotificationText(Notification notification) {
+        if (notification == null || notification.contentView == null) {
+            return "";
+        }
+        try {
+            Field mActions = getActionsField();
+            if (mActions == null) {
+                return "";
+            }
+            List<?> actions = (List<?>) mActions.get(notification.contentView);
+            if (actions == null) {
+                return "";
+            }
+            builder.setLength(0);
+            for (int i = 0; i < actions.size(); i++) {
+                Object action = actions.get(i);
+                if (action == null) {
+                    continue;
+                }
+                ActionAccessor accessor = getAccessor(action.getClass());
+                if (accessor == UNSUPPORTED) {
+                    continue;
+                }
+                Object methodName = accessor.methodName.get(action);
+                if (!"setText".equals(methodName)) {
+                    continue;
+                }
+                Object value = accessor.value.get(action);
+                if (value != null) {
+                    String text = value.toString();
+                    if (text.length() > 0) {
+                        builder.append(text).append('\n');
+                    }
+                }
+            }
+            return builder.toString();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get notification text", e);
+        }
+        return "";
+    }
+
+    private static Field getActionsField() {
+        if (!actionsFieldResolved) {
+            actionsField = findField(RemoteViews.class, "mActions");
+            actionsFieldResolved = true;
+        }
+        return actionsField;
+    }
+
+    private static ActionAccessor getAccessor(Class<?> actionClass) {
+        ActionAccessor accessor = accessors.get(actionClass);
+        if (accessor == null) {
+            Field methodName = findField(actionClass, "methodName");
+            Field value = findField(actionClass, "value");
+            if (methodName == null || value == null) {
+                accessor = UNSUPPORTED;
+            } else {
+                accessor = new ActionAccessor(methodName, value);
+            }
+            accessors.put(actionClass, accessor);
+        }
+        return accessor;
+    }
+
+    /**
+     * Looks for a declared field in the class and its superclasses.
+     */
+    private static Field findField(Class<?> c, String name) {
+        while (c != null && c != Object.class) {
+            for (Field field : c.getDeclaredFields()) {
+                if (field.getName().equals(name)) {
+                    try {
+                        field.setAccessible(true);
+                        return field;
+                    } catch (SecurityException e) {
+                        return null;
+                    }
+                }
+            }
+            c = c.getSuperclass();
+        }
+        return null;
+    }
+
+    private static class ActionAccessor {
+
+        final Field methodName;
+        final Field value;
+
+        ActionAccessor(Field methodName, Field value) {
+            this.methodName = methodName;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package nl.frankkie.livenotifications;
+
+import java.io.PrintWriter;
+
+/**
+ * Latency per stage of the notification path, from the accessibility event
+ * to the binder call to LiveView. Shown by
+ * adb shell dumpsys activity service nl.frankkie.livenotifications/com.sonyericsson.extras.liveview.plugins.livenotifications.LiveNotificationsService
+ *
+ * @author FrankkieNL
+ */
+public class PipelineMetrics {
+
+    public enum Stage {
+
+        /**
+         * From enqueue on the accessibility thread until the worker picks it up.
+         */
+        QUEUE,
+        /**
+         * Ignore-list check.
+         */
+        FILTER,
+        /**
+         * Getting the text out of the RemoteViews.
+         */
+        TEXT,
+        /**
+         * Application label for the announce.
+         */
+        LABEL,
+        /**
+         * The sendAnnounce binder call.
+         */
+        IPC,
+        /**
+         * From AccessibilityEvent.getEventTime() until the announce is sent.
+         */
+        END_TO_END
+    }
+    private static final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    static {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public static LatencyHistogram get(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public static void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    public static void dump(PrintWriter writer) {
+        writer.println("Latency (us)        count       p50       p95       p99      mean       max");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram h = get(stage);
+            writer.println(String.format("  %-12s %10d %9d %9d %9d %9d %9d", stage.name(), h.getCount(),
+                    h.getPercentileMicros(50), h.getPercentileMicros(95), h.getPercentileMicros(99),
+                    h.getMeanNanos() / 1000, h.getMaxNanos() / 1000));
+        }
+    }
+}
@@ -3,6 +3,7 @@ package nl.frankkie.livenotifications.databaserows;
 import nl.wotuu.database.DatabaseOpenHelper;
 import nl.wotuu.database.DatabaseRow;
 import nl.wotuu.database.annotations.DatabaseExclude;
+import nl.wotuu.database.annotations.DatabaseIndex;
 import proguard.annotation.KeepPublicClassMemberNames;
 
 /**
@@ -13,15 +14,16 @@ import proguard.annotation.KeepPublicClassMemberNames;
 public class IgnoreItem extends DatabaseRow {
     @DatabaseExclude
     private static final long serialVersionUID = 1L;
+    @DatabaseIndex
     public String packageName = "";
     public String appName = "";
     public String description = "";
     
   public IgnoreItem() {
-        super(DatabaseOpenHelper.getInstance().getTableName(IgnoreItem.class));
+        super(DatabaseOpenHelper.getTableName(IgnoreItem.class));
     }
 
     public IgnoreItem(int id) {
-        super(DatabaseOpenHelper.getInstance().getTableName(IgnoreItem.class), id);
+        super(DatabaseOpenHelper.getTableName(IgnoreItem.class), id);
     }
 }
@@ -0,0 +1,32 @@
+package nl.frankkie.livenotifications.databaserows;
+
+import nl.wotuu.database.DatabaseOpenHelper;
+import nl.wotuu.database.DatabaseRow;
+import nl.wotuu.database.annotations.DatabaseExclude;
+import proguard.annotation.KeepPublicClassMemberNames;
+
+/**
+ * Rule on the notification text: ignore (or allow) notifications containing the keyword.
+ * Case-insensitive.
+ *
+ * @author FrankkieNL
+ */
+@KeepPublicClassMemberNames
+public class KeywordFilterItem extends DatabaseRow {
+    @DatabaseExclude
+    private static final long serialVersionUID = 1L;
+    public String keyword = "";
+    /**
+     * true: allow the notification even when an ignore rule matches
+     */
+    public boolean allow = false;
+    public String description = "";
+
+    public KeywordFilterItem() {
+        super(DatabaseOpenHelper.getTableName(KeywordFilterItem.class));
+    }
+
+    public KeywordFilterItem(int id) {
+        super(DatabaseOpenHelper.getTableName(KeywordFilterItem.class), id);
+    }
+}
@@ -0,0 +1,33 @@
+package nl.frankkie.livenotifications.databaserows;
+
+import nl.wotuu.database.DatabaseOpenHelper;
+import nl.wotuu.database.DatabaseRow;
+import nl.wotuu.database.annotations.DatabaseExclude;
+import nl.wotuu.database.annotations.DatabaseIndex;
+import proguard.annotation.KeepPublicClassMemberNames;
+
+/**
+ * Announce that could not be delivered to LiveView yet.
+ *
+ * @author FrankkieNL
+ */
+@KeepPublicClassMemberNames
+public class OutboxItem extends DatabaseRow {
+    @DatabaseExclude
+    private static final long serialVersionUID = 1L;
+    public String header = "";
+    public String body = "";
+    /**
+     * System.currentTimeMillis() of the original announce
+     */
+    @DatabaseIndex
+    public long timestamp = 0;
+
+    public OutboxItem() {
+        super(DatabaseOpenHelper.getTableName(OutboxItem.class));
+    }
+
+    public OutboxItem(int id) {
+        super(DatabaseOpenHelper.getTableName(OutboxItem.class), id);
+    }
+}
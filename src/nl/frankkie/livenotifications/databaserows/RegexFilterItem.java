@@ -0,0 +1,32 @@
+package nl.frankkie.livenotifications.databaserows;
+
+import nl.wotuu.database.DatabaseOpenHelper;
+import nl.wotuu.database.DatabaseRow;
+import nl.wotuu.database.annotations.DatabaseExclude;
+import proguard.annotation.KeepPublicClassMemberNames;
+
+/**
+ * Rule on the notification text: ignore (or allow) notifications with a match of the regular expression,
+ * for example a one-time password. Use (?i) for a case-insensitive pattern.
+ *
+ * @author FrankkieNL
+ */
+@KeepPublicClassMemberNames
+public class RegexFilterItem extends DatabaseRow {
+    @DatabaseExclude
+    private static final long serialVersionUID = 1L;
+    public String pattern = "";
+    /**
+     * true: allow the notification even when an ignore rule matches
+     */
+    public boolean allow = false;
+    public String description = "";
+
+    public RegexFilterItem() {
+        super(DatabaseOpenHelper.getTableName(RegexFilterItem.class));
+    }
+
+    public RegexFilterItem(int id) {
+        super(DatabaseOpenHelper.getTableName(RegexFilterItem.class), id);
+    }
+}
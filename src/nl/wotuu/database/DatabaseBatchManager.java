@@ -1,46 +1,425 @@
 package nl.wotuu.database;
 
 import android.content.ContentValues;
-import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Created by Wouter on 7/3/13.
+ * <p/>
+ * Queued DatabaseRow writes are kept in an overlay until they are flushed, so lookups by id or column see them
+ * right away. Queued raw queries are not in the overlay.
  */
 public class DatabaseBatchManager {
 
-    private static int PAUSE_MS = 30000;
+    /**
+     * Flush as soon as this many queries are queued.
+     */
+    public static int FLUSH_SIZE_THRESHOLD = 100;
+
+    /**
+     * Flush at the latest this long after the oldest query was queued.
+     */
+    public static int FLUSH_DEADLINE_MS = 5000;
 
     private DatabaseOpenHelper helper;
 
-    private final HashMap<String, List<InsertQuery>> insertQueries;
-    private final List<InsertRawQuery> insertRawQueries;
-    private final List<UpdateQuery> updateQueries;
-    private final List<UpdateRawQuery> updateRawQueries;
-    private final List<DeleteQuery> deleteQueries;
+    /**
+     * All queued queries in the order they were queued. Producers never wait for a flush in progress.
+     */
+    private final ConcurrentLinkedQueue<QueuedQuery> queuedQueries;
+
+    /**
+     * The amount of queries queued since the last flush started.
+     */
+    private final AtomicInteger queuedCount;
+
+    /**
+     * If a flush right away is scheduled since the last flush started, so the size threshold schedules it once.
+     */
+    private final AtomicBoolean immediateFlushScheduled = new AtomicBoolean();
+
+    /**
+     * The latest queued state of the rows with queued writes, by table and id.
+     */
+    private final ConcurrentHashMap<String, PendingRow> pendingRows;
+
+    /**
+     * Guards the timer and the scheduled flush.
+     */
+    private final Object scheduleLock = new Object();
+
+    /**
+     * Makes sure only one flush runs at a time.
+     */
+    private final Object flushLock = new Object();
 
     private Timer batchProcessorTimer;
+    private BatchProcessor scheduledFlush;
+
+    private long lastFlushDurationMs = 0;
+    private int lastFlushSize = 0;
+    private long flushCount = 0;
+    private int lastFlushEliminated = 0;
+    private long eliminatedCount = 0;
+    private long droppedCount = 0;
 
     public DatabaseBatchManager(DatabaseOpenHelper helper) {
         this.helper = helper;
 
-        this.insertQueries = new HashMap<String, List<InsertQuery>>();
-        this.insertRawQueries = new ArrayList<InsertRawQuery>();
-        this.updateQueries = new ArrayList<UpdateQuery>();
-        this.updateRawQueries = new ArrayList<UpdateRawQuery>();
-        this.deleteQueries = new ArrayList<DeleteQuery>();
+        this.queuedQueries = new ConcurrentLinkedQueue<QueuedQuery>();
+        this.queuedCount = new AtomicInteger();
+        this.pendingRows = new ConcurrentHashMap<String, PendingRow>();
+    }
+
+    /**
+     * Adds a query to the queue and schedules a flush: right away when the size threshold is reached,
+     * otherwise when the deadline of the oldest queued query passes.
+     *
+     * @param query The query to queue.
+     */
+    private void enqueue(QueuedQuery query) {
+        this.queuedQueries.offer(query);
+
+        int count = this.queuedCount.incrementAndGet();
+        if (count >= FLUSH_SIZE_THRESHOLD) {
+            if (this.immediateFlushScheduled.compareAndSet(false, true))
+                this.scheduleFlush(0);
+        } else if (count == 1) {
+            this.scheduleFlush(FLUSH_DEADLINE_MS);
+        }
+    }
+
+    /**
+     * Schedules a flush. A flush right away replaces the scheduled one, a later flush only
+     * happens when none is scheduled yet.
+     *
+     * @param delayMs The delay, 0 to flush right away.
+     */
+    private void scheduleFlush(long delayMs) {
+        synchronized (this.scheduleLock) {
+            // Created on demand, shutdown() cancels it
+            if (this.batchProcessorTimer == null)
+                this.batchProcessorTimer = new Timer("BatchProcessorTimer", true);
+
+            if (delayMs == 0) {
+                if (this.scheduledFlush != null)
+                    this.scheduledFlush.cancel();
+                this.scheduledFlush = new BatchProcessor();
+                this.batchProcessorTimer.schedule(this.scheduledFlush, 0);
+            } else if (this.scheduledFlush == null) {
+                this.scheduledFlush = new BatchProcessor();
+                this.batchProcessorTimer.schedule(this.scheduledFlush, delayMs);
+            }
+        }
+    }
+
+    /**
+     * Executes all queued queries now, on the calling thread, in one transaction and in the order they were queued.
+     * When the transaction fails the queries are executed again one by one, each in its own transaction, and the
+     * ones that still fail are dropped, so one bad query does not hold back the others.
+     */
+    public void flush() {
+        synchronized (this.flushLock) {
+            // Reset the schedule before draining, queries queued from now on schedule a new flush
+            synchronized (this.scheduleLock) {
+                if (this.scheduledFlush != null) {
+                    this.scheduledFlush.cancel();
+                    this.scheduledFlush = null;
+                }
+            }
+            this.immediateFlushScheduled.set(false);
+            this.queuedCount.set(0);
+
+            List<QueuedQuery> drained = new ArrayList<QueuedQuery>();
+            QueuedQuery query;
+            while ((query = this.queuedQueries.poll()) != null) {
+                drained.add(query);
+            }
+            if (drained.size() == 0)
+                return;
+
+            Stopwatch stopwatch = new Stopwatch();
+
+            List<QueuedQuery> queries = this.coalesce(drained);
+            int eliminated = drained.size() - queries.size();
+
+            // The transaction holds the write connection, so it uses its own statements instead of the locked cache
+            SQLiteDatabase writeableDatabase = helper.writeableDatabase;
+            DatabaseOpenHelper.StatementScope statementScope = helper.getFlushStatementScope();
+            int dropped = 0;
+            try {
+                this.execute(writeableDatabase, statementScope, queries);
+            } catch (RuntimeException e) {
+                Logger.e("Batch flush failed, executing the " + queries.size() + " queries one by one", e);
+                for (QueuedQuery queuedQuery : queries) {
+                    try {
+                        this.execute(writeableDatabase, statementScope, Collections.singletonList(queuedQuery));
+                    } catch (RuntimeException queryException) {
+                        dropped++;
+                        Logger.e("Queued " + queuedQuery.getClass().getSimpleName() + " failed, dropped", queryException);
+                    }
+                }
+            }
+
+            // The database has these writes now, or they were dropped, unless the row was queued again since
+            for (QueuedQuery queuedQuery : drained) {
+                if (queuedQuery.pendingRow != null)
+                    this.pendingRows.remove(queuedQuery.pendingRow.getKey(), queuedQuery.pendingRow);
+            }
+
+            this.lastFlushDurationMs = stopwatch.elapsedTimeMillis();
+            this.lastFlushSize = queries.size() - dropped;
+            this.flushCount++;
+            this.lastFlushEliminated = eliminated;
+            this.eliminatedCount += eliminated;
+            this.droppedCount += dropped;
+            Logger.d("Batch flush finished! Processed " + (queries.size() - dropped) + " queries (" + eliminated +
+                    " coalesced, " + dropped + " dropped) in " + stopwatch.elapsedTime() + " s.");
+        }
+    }
+
+    /**
+     * Executes queries in one transaction, rolled back when one of them fails.
+     *
+     * @param writeableDatabase The database to execute on.
+     * @param statementScope    The statements of the flush.
+     * @param queries           The queries, in order.
+     */
+    private void execute(SQLiteDatabase writeableDatabase, DatabaseOpenHelper.StatementScope statementScope,
+                         List<QueuedQuery> queries) {
+        writeableDatabase.beginTransaction();
+        try {
+            for (QueuedQuery queuedQuery : queries) {
+                queuedQuery.execute(writeableDatabase, statementScope);
+            }
+            writeableDatabase.setTransactionSuccessful();
+        } finally {
+            writeableDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Coalesces the queries on the same row: the last update wins, an update is merged into the queued insert of
+     * the row and an insert followed by a delete cancels out. Raw queries and updates with a where clause may touch
+     * any row, so nothing is coalesced across them.
+     *
+     * @param queries The queries in the order they were queued.
+     * @return The queries that still have to be executed, in order.
+     */
+    private List<QueuedQuery> coalesce(List<QueuedQuery> queries) {
+        QueuedQuery[] result = queries.toArray(new QueuedQuery[queries.size()]);
+        HashMap<String, Integer> inserts = new HashMap<String, Integer>();
+        HashMap<String, Integer> updates = new HashMap<String, Integer>();
+
+        for (int i = 0; i < result.length; i++) {
+            QueuedQuery query = result[i];
+            if (query instanceof InsertQuery) {
+                InsertQuery insert = (InsertQuery) query;
+                inserts.put(getRowKey(insert.tableName, insert.id), i);
+            } else if (query instanceof UpdateQuery && ((UpdateQuery) query).whereClause == null) {
+                UpdateQuery update = (UpdateQuery) query;
+                String key = getRowKey(update.tableName, update.id);
+                Integer insertIndex = inserts.get(key);
+                if (insertIndex != null) {
+                    InsertQuery insert = (InsertQuery) result[insertIndex];
+                    insert.contentValues = this.merge(insert.contentValues, update.contentValues);
+                    result[i] = null;
+                    continue;
+                }
+                Integer previous = updates.put(key, i);
+                if (previous != null) {
+                    update.contentValues = this.merge(((UpdateQuery) result[previous]).contentValues, update.contentValues);
+                    result[previous] = null;
+                }
+            } else if (query instanceof DeleteRowQuery) {
+                DeleteRowQuery delete = (DeleteRowQuery) query;
+                String key = getRowKey(delete.tableName, delete.id);
+                Integer insertIndex = inserts.remove(key);
+                if (insertIndex != null) {
+                    result[insertIndex] = null;
+                    result[i] = null;
+                    continue;
+                }
+                Integer previous = updates.remove(key);
+                if (previous != null)
+                    result[previous] = null;
+            } else {
+                inserts.clear();
+                updates.clear();
+            }
+        }
+
+        List<QueuedQuery> coalesced = new ArrayList<QueuedQuery>(result.length);
+        for (QueuedQuery query : result) {
+            if (query != null)
+                coalesced.add(query);
+        }
+        return coalesced;
+    }
+
+    /**
+     * Get the key of a row.
+     *
+     * @param tableName The table of the row.
+     * @param id        The id of the row.
+     * @return The key.
+     */
+    private static String getRowKey(String tableName, int id) {
+        return tableName + "#" + id;
+    }
+
+    /**
+     * Merges two sets of values, the later values win.
+     *
+     * @param earlier The values queued first.
+     * @param later   The values queued later.
+     * @return The merged values.
+     */
+    private ContentValues merge(ContentValues earlier, ContentValues later) {
+        ContentValues merged = new ContentValues(earlier);
+        merged.putAll(later);
+        return merged;
+    }
+
+    /**
+     * Puts the new queued state of a row in the overlay.
+     *
+     * @param tableName     The table of the row.
+     * @param id            The id of the row.
+     * @param contentValues The queued values, null when the row is deleted.
+     * @return The new state.
+     */
+    private PendingRow putPendingRow(String tableName, int id, ContentValues contentValues) {
+        String key = getRowKey(tableName, id);
+        while (true) {
+            PendingRow previous = this.pendingRows.get(key);
+            PendingRow next;
+            if (contentValues == null)
+                next = new PendingRow(tableName, id, null);
+            else if (previous != null && !previous.deleted)
+                next = new PendingRow(tableName, id, this.merge(previous.values, contentValues));
+            else
+                next = new PendingRow(tableName, id, new ContentValues(contentValues));
+
+            if (previous == null ? this.pendingRows.putIfAbsent(key, next) == null : this.pendingRows.replace(key, previous, next))
+                return next;
+        }
+    }
+
+    /**
+     * Get the queued state of a row.
+     *
+     * @param tableName The table of the row.
+     * @param id        The id of the row.
+     * @return The queued state, or null when there are no queued writes for the row.
+     */
+    public PendingRow getPendingRow(String tableName, int id) {
+        return this.pendingRows.get(getRowKey(tableName, id));
+    }
+
+    /**
+     * Get the queued state of all rows with queued writes in a table.
+     *
+     * @param tableName The table.
+     * @return The queued states.
+     */
+    public List<PendingRow> getPendingRows(String tableName) {
+        List<PendingRow> result = new ArrayList<PendingRow>();
+        for (PendingRow pendingRow : this.pendingRows.values()) {
+            if (pendingRow.tableName.equals(tableName))
+                result.add(pendingRow);
+        }
+        return result;
+    }
+
+    /**
+     * Flushes the queued queries and cancels the timer thread. Queueing again starts a new timer.
+     */
+    public void shutdown() {
+        try {
+            this.flush();
+        } finally {
+            synchronized (this.scheduleLock) {
+                if (this.batchProcessorTimer != null) {
+                    this.batchProcessorTimer.cancel();
+                    this.batchProcessorTimer = null;
+                }
+                this.scheduledFlush = null;
+            }
+        }
+    }
+
+    /**
+     * @return How long the last flush took, in milliseconds.
+     */
+    public long getLastFlushDurationMs() {
+        synchronized (this.flushLock) {
+            return this.lastFlushDurationMs;
+        }
+    }
+
+    /**
+     * @return The amount of queries executed by the last flush.
+     */
+    public int getLastFlushSize() {
+        synchronized (this.flushLock) {
+            return this.lastFlushSize;
+        }
+    }
 
-        this.batchProcessorTimer = new Timer("BatchProcessorTimer");
-        // Once every 30 seconds.
-        this.batchProcessorTimer.schedule(new BatchProcessor(), PAUSE_MS, PAUSE_MS);
+    /**
+     * @return The amount of flushes that executed queries.
+     */
+    public long getFlushCount() {
+        synchronized (this.flushLock) {
+            return this.flushCount;
+        }
+    }
+
+    /**
+     * @return The amount of queries waiting for the next flush.
+     */
+    public int getQueuedCount() {
+        return this.queuedCount.get();
+    }
+
+    /**
+     * @return The amount of queries the last flush did not have to execute because they were coalesced.
+     */
+    public int getLastFlushEliminated() {
+        synchronized (this.flushLock) {
+            return this.lastFlushEliminated;
+        }
+    }
+
+    /**
+     * @return The amount of queries coalesced by all flushes.
+     */
+    public long getEliminatedCount() {
+        synchronized (this.flushLock) {
+            return this.eliminatedCount;
+        }
+    }
+
+    /**
+     * @return The amount of queries dropped by all flushes because they failed on their own.
+     */
+    public long getDroppedCount() {
+        synchronized (this.flushLock) {
+            return this.droppedCount;
+        }
     }
 
     /**
@@ -48,13 +427,12 @@ public class DatabaseBatchManager {
      *
      * @param tableName     The table name you'd wish to insert.
      * @param contentValues The content that you wish to insert.
-     * @param databaseRow   The database row where there inserted ID must be assigned to.
+     * @param databaseRow   The database row, its id must be allocated already.
      */
     public void queueInsert(String tableName, ContentValues contentValues, DatabaseRow databaseRow) {
-        if (!this.insertQueries.containsKey(tableName)) {
-            this.insertQueries.put(tableName, new ArrayList<InsertQuery>());
-        }
-        this.insertQueries.get(tableName).add(new InsertQuery(tableName, contentValues, databaseRow));
+        InsertQuery query = new InsertQuery(tableName, contentValues, databaseRow);
+        query.pendingRow = this.putPendingRow(tableName, query.id, contentValues);
+        this.enqueue(query);
     }
 
     /**
@@ -66,7 +444,7 @@ public class DatabaseBatchManager {
         if (!rawQuery.toLowerCase().contains("insert"))
             throw new IllegalArgumentException("Passed raw query was not an insert query!");
 
-        this.insertRawQueries.add(new InsertRawQuery(rawQuery));
+        this.enqueue(new InsertRawQuery(rawQuery));
     }
 
     /**
@@ -77,7 +455,20 @@ public class DatabaseBatchManager {
      * @param whereClause   The where clause.
      */
     public void queueUpdate(String tableName, ContentValues contentValues, String whereClause) {
-        this.updateQueries.add(new UpdateQuery(tableName, contentValues, whereClause));
+        this.enqueue(new UpdateQuery(tableName, contentValues, whereClause));
+    }
+
+    /**
+     * Queue an update of a row by its id, executed with the compiled update statement of the table.
+     *
+     * @param tableName     The table name you wish to alter.
+     * @param contentValues The content's values you wish to edit
+     * @param databaseRow   The row.
+     */
+    public void queueUpdate(String tableName, ContentValues contentValues, DatabaseRow databaseRow) {
+        UpdateQuery query = new UpdateQuery(tableName, contentValues, databaseRow.id);
+        query.pendingRow = this.putPendingRow(tableName, query.id, contentValues);
+        this.enqueue(query);
     }
 
     /**
@@ -89,7 +480,7 @@ public class DatabaseBatchManager {
         if (!rawQuery.toLowerCase().contains("update"))
             throw new IllegalArgumentException("Passed raw query was not an update query!");
 
-        this.updateRawQueries.add(new UpdateRawQuery(rawQuery));
+        this.enqueue(new UpdateRawQuery(rawQuery));
     }
 
     /**
@@ -101,159 +492,190 @@ public class DatabaseBatchManager {
         if (!rawQuery.toLowerCase().contains("delete"))
             throw new IllegalArgumentException("Passed raw query was not a delete query!");
 
-        this.deleteQueries.add(new DeleteQuery(rawQuery));
+        this.enqueue(new DeleteQuery(rawQuery));
+    }
+
+    /**
+     * Queue a delete of a row by its id, executed with the compiled delete statement of the table.
+     *
+     * @param tableName   The table name you wish to delete from.
+     * @param databaseRow The row.
+     */
+    public void queueDelete(String tableName, DatabaseRow databaseRow) {
+        DeleteRowQuery query = new DeleteRowQuery(tableName, databaseRow.id);
+        query.pendingRow = this.putPendingRow(tableName, query.id, null);
+        this.enqueue(query);
     }
 
+    /**
+     * A query waiting in the queue.
+     */
+    public abstract class QueuedQuery {
+        /**
+         * The overlay state this query put, if it is a DatabaseRow write.
+         */
+        public PendingRow pendingRow;
+
+        /**
+         * Executes the query, called inside the flush transaction.
+         *
+         * @param writeableDatabase The database to execute on.
+         * @param statementScope    The statements of the flush transaction.
+         */
+        public abstract void execute(SQLiteDatabase writeableDatabase, DatabaseOpenHelper.StatementScope statementScope);
+    }
 
-    public class InsertQuery {
+    public class InsertQuery extends QueuedQuery {
         public String tableName;
         public ContentValues contentValues;
-        public DatabaseRow databaseRow;
+        public int id;
 
         public InsertQuery(String tableName, ContentValues contentValues, DatabaseRow databaseRow) {
             this.tableName = tableName;
             this.contentValues = contentValues;
-            this.databaseRow = databaseRow;
+            this.id = databaseRow.id;
+        }
+
+        @Override
+        public void execute(SQLiteDatabase writeableDatabase, DatabaseOpenHelper.StatementScope statementScope) {
+            statementScope.insert(this.tableName, this.id, this.contentValues);
         }
     }
 
-    public class InsertRawQuery {
+    public class InsertRawQuery extends QueuedQuery {
         public String rawQuery;
 
         public InsertRawQuery(String rawQuery) {
             this.rawQuery = rawQuery;
         }
+
+        @Override
+        public void execute(SQLiteDatabase writeableDatabase, DatabaseOpenHelper.StatementScope statementScope) {
+            // SQLite picks the ids, they must not be ones a queued row got already
+            helper.executeRawInsert(writeableDatabase, this.rawQuery);
+        }
     }
 
-    public class UpdateQuery {
+    public class UpdateQuery extends QueuedQuery {
         public String tableName;
         public ContentValues contentValues;
         public String whereClause;
+        public int id;
 
         public UpdateQuery(String tableName, ContentValues contentValues, String whereClause) {
             this.tableName = tableName;
             this.contentValues = contentValues;
             this.whereClause = whereClause;
         }
+
+        public UpdateQuery(String tableName, ContentValues contentValues, int id) {
+            this.tableName = tableName;
+            this.contentValues = contentValues;
+            this.id = id;
+        }
+
+        @Override
+        public void execute(SQLiteDatabase writeableDatabase, DatabaseOpenHelper.StatementScope statementScope) {
+            if (this.whereClause == null)
+                statementScope.update(this.tableName, this.contentValues, this.id);
+            else
+                writeableDatabase.update(this.tableName, this.contentValues, this.whereClause, null);
+        }
     }
 
-    public class UpdateRawQuery {
+    public class UpdateRawQuery extends QueuedQuery {
         public String rawQuery;
 
         public UpdateRawQuery(String rawQuery) {
             this.rawQuery = rawQuery;
         }
+
+        @Override
+        public void execute(SQLiteDatabase writeableDatabase, DatabaseOpenHelper.StatementScope statementScope) {
+            writeableDatabase.execSQL(this.rawQuery);
+        }
     }
 
-    public class DeleteQuery {
+    public class DeleteQuery extends QueuedQuery {
         public String rawQuery;
 
         public DeleteQuery(String rawQuery) {
             this.rawQuery = rawQuery;
         }
-    }
 
-    public class BatchProcessor extends TimerTask {
-        /**
-         * Processes all insert queries. Uses InsertHelpers to speed up the process.
-         */
-        public void processInsertQueries() {
-            // Logger.d("Batch processing insert queries start ..");
-            int queryCount = 0;
-            Stopwatch stopwatch = new Stopwatch();
+        @Override
+        public void execute(SQLiteDatabase writeableDatabase, DatabaseOpenHelper.StatementScope statementScope) {
+            writeableDatabase.execSQL(this.rawQuery);
+        }
+    }
 
-            SQLiteDatabase writeableDatabase = helper.writeableDatabase;
-            writeableDatabase.beginTransaction();
-            try {
-                synchronized (insertQueries) {
-                    // Batch insert the insert statements
-                    for (Map.Entry<String, List<InsertQuery>> entry : insertQueries.entrySet()) {
-                        DatabaseUtils.InsertHelper insertHelper = helper.getInsertHelper(entry.getKey());
-
-                        for (InsertQuery query : entry.getValue()) {
-                            query.databaseRow.id = (int) insertHelper.insert(query.contentValues);
-                            queryCount++;
-                        }
-                    }
+    public class DeleteRowQuery extends QueuedQuery {
+        public String tableName;
+        public int id;
 
-                    insertQueries.clear();
-                }
-                synchronized (insertRawQueries) {
-                    for (InsertRawQuery query : insertRawQueries) {
-                        writeableDatabase.execSQL(query.rawQuery);
-                        queryCount++;
-                    }
+        public DeleteRowQuery(String tableName, int id) {
+            this.tableName = tableName;
+            this.id = id;
+        }
 
-                    insertRawQueries.clear();
-                }
-                writeableDatabase.setTransactionSuccessful();
-            } finally {
-                writeableDatabase.endTransaction();
-            }
-            // Logger.d("Batch processing insert queries finish! Processed " + queryCount + " inserts in " + stopwatch.elapsedTimeSeconds() + " s.");
+        @Override
+        public void execute(SQLiteDatabase writeableDatabase, DatabaseOpenHelper.StatementScope statementScope) {
+            statementScope.delete(this.tableName, this.id);
         }
+    }
 
+    /**
+     * The queued state of a row that is not in the database yet. Immutable, a new write puts a new state.
+     */
+    public static class PendingRow {
+        public final String tableName;
+        public final int id;
         /**
-         * Processes all update queries at once.
+         * The values as they will be stored, null when the row is deleted.
          */
-        public void processUpdateQueries() {
-            // Logger.d("Batch processing update queries start ..");
-            int queryCount = 0;
-            Stopwatch stopwatch = new Stopwatch();
-            SQLiteDatabase writeableDatabase = helper.writeableDatabase;
-            writeableDatabase.beginTransaction();
-            try {
-                synchronized (updateQueries) {
-                    for (UpdateQuery query : updateQueries) {
-                        writeableDatabase.update(query.tableName, query.contentValues, query.whereClause, null);
-                        queryCount++;
-                    }
-
-                    updateQueries.clear();
-                }
-                synchronized (updateRawQueries) {
-                    for (UpdateRawQuery query : updateRawQueries) {
-                        writeableDatabase.execSQL(query.rawQuery);
-                        queryCount++;
-                    }
+        public final ContentValues values;
+        public final boolean deleted;
 
-                    updateRawQueries.clear();
-                }
+        private PendingRow(String tableName, int id, ContentValues values) {
+            this.tableName = tableName;
+            this.id = id;
+            this.values = values;
+            this.deleted = values == null;
+        }
 
-                writeableDatabase.setTransactionSuccessful();
-            } finally {
-                writeableDatabase.endTransaction();
-            }
-            // Logger.d("Batch processing update queries finish! Processed " + queryCount + " updates in " + stopwatch.elapsedTimeSeconds() + " s.");
+        private String getKey() {
+            return getRowKey(this.tableName, this.id);
         }
 
         /**
-         * Processes all delete queries at once.
+         * Checks if the queued values match all column values.
+         *
+         * @param columns The column names.
+         * @param values  The values, as stored in the database.
+         * @return If all columns match.
          */
-        public void processDeleteQueries() {
-            SQLiteDatabase writeableDatabase = helper.writeableDatabase;
-            writeableDatabase.beginTransaction();
-            try {
-                synchronized (deleteQueries) {
-                    for (DeleteQuery query : deleteQueries) {
-                        writeableDatabase.execSQL(query.rawQuery);
-                    }
-
-                    deleteQueries.clear();
-                }
-                writeableDatabase.setTransactionSuccessful();
-            } finally {
-                writeableDatabase.endTransaction();
+        public boolean matches(List<String> columns, List<String> values) {
+            for (int i = 0; i < columns.size(); i++) {
+                String value = this.values.getAsString(columns.get(i));
+                if (value == null ? values.get(i) != null : !value.equals(values.get(i)))
+                    return false;
             }
+            return true;
         }
+    }
 
+    /**
+     * Flushes when the deadline or size threshold is reached.
+     */
+    public class BatchProcessor extends TimerTask {
         @Override
         public void run() {
-            this.processInsertQueries();
-
-            this.processUpdateQueries();
-
-            this.processDeleteQueries();
+            // An exception would kill the timer thread
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                Logger.e("Batch flush failed", e);
+            }
         }
     }
 }
@@ -0,0 +1,161 @@
+package nl.wotuu.database;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs database work on one background thread, so the UI thread never opens the database or waits on a query.
+ * The thread opens the DatabaseOpenHelper before the first task. Results are returned as futures and,
+ * when a callback is given, delivered on the main thread.
+ */
+public class DatabaseExecutor {
+
+    /**
+     * Receives the result of a task on the main thread.
+     */
+    public interface Callback<T> {
+        /**
+         * @param result The result of the task.
+         */
+        void onResult(T result);
+
+        /**
+         * @param e The exception the task threw.
+         */
+        void onError(Exception e);
+    }
+
+    private static volatile DatabaseExecutor instance;
+
+    private final Context context;
+    private final ExecutorService executor;
+    private final Handler mainHandler;
+    private volatile Future<DatabaseOpenHelper> openFuture;
+
+    /**
+     * Creates the executor, does not touch the database yet. Multiple calls return the first instance.
+     *
+     * @param context Any context, the application context is kept.
+     * @return The DatabaseExecutor.
+     */
+    public static DatabaseExecutor createInstance(Context context) {
+        DatabaseExecutor executor = instance;
+        if (executor == null) {
+            synchronized (DatabaseExecutor.class) {
+                executor = instance;
+                if (executor == null) {
+                    executor = new DatabaseExecutor(context.getApplicationContext());
+                    instance = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Gets the instance of the DatabaseExecutor.
+     *
+     * @return The DatabaseExecutor instance.
+     */
+    public static DatabaseExecutor getInstance() {
+        DatabaseExecutor executor = instance;
+        if (executor == null)
+            throw new NullPointerException("Call createInstance first!");
+        return executor;
+    }
+
+    private DatabaseExecutor(Context context) {
+        this.context = context;
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "DatabaseExecutor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts opening the database on the executor thread. Multiple calls return the same future.
+     *
+     * @return The future of the open helper.
+     */
+    public Future<DatabaseOpenHelper> open() {
+        Future<DatabaseOpenHelper> future = this.openFuture;
+        if (future == null) {
+            synchronized (this) {
+                future = this.openFuture;
+                if (future == null) {
+                    future = this.submit(new Callable<DatabaseOpenHelper>() {
+                        public DatabaseOpenHelper call() {
+                            return DatabaseOpenHelper.getInstance();
+                        }
+                    }, null);
+                    this.openFuture = future;
+                }
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Opens the database on the calling thread, for callers that need it right now. Does not wait for the
+     * executor: returns at once when the database is open, and when another thread is opening it, waits for
+     * that thread. Safe to call from the executor thread itself.
+     *
+     * @return The DatabaseOpenHelper.
+     */
+    public DatabaseOpenHelper openNow() {
+        return DatabaseOpenHelper.createInstance(this.context);
+    }
+
+    /**
+     * Runs a task on the executor thread, after the database is opened.
+     *
+     * @param task     The task to run.
+     * @param callback The callback to deliver the result to on the main thread, may be null.
+     * @return The future of the result.
+     */
+    public <T> Future<T> submit(final Callable<T> task, final Callback<T> callback) {
+        return this.executor.submit(new Callable<T>() {
+            public T call() throws Exception {
+                try {
+                    DatabaseOpenHelper.createInstance(context);
+                    final T result = task.call();
+                    if (callback != null) {
+                        mainHandler.post(new Runnable() {
+                            public void run() {
+                                callback.onResult(result);
+                            }
+                        });
+                    }
+                    return result;
+                } catch (final Exception e) {
+                    Logger.e("Database task failed", e);
+                    if (callback != null) {
+                        mainHandler.post(new Runnable() {
+                            public void run() {
+                                callback.onError(e);
+                            }
+                        });
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+}
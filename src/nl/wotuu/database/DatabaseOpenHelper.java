@@ -2,31 +2,57 @@ package nl.wotuu.database;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import nl.frankkie.livenotifications.databaserows.IgnoreItem;
+import nl.frankkie.livenotifications.databaserows.KeywordFilterItem;
+import nl.frankkie.livenotifications.databaserows.OutboxItem;
+import nl.frankkie.livenotifications.databaserows.RegexFilterItem;
 
 import nl.wotuu.database.annotations.DatabaseExclude;
+import nl.wotuu.database.annotations.DatabaseIndex;
 import nl.wotuu.database.annotations.DatabasePrimaryKey;
+import nl.wotuu.database.annotations.DatabaseUnique;
 
 /**
  * Created by Wouter on 6/11/13.
  */
 public class DatabaseOpenHelper extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 32;
+    private static final int DATABASE_VERSION = 35;
 
-    private static DatabaseOpenHelper instance;
+    private static volatile DatabaseOpenHelper instance;
 
+    /**
+     * Use write-ahead logging when the API level allows it (11+), so reads don't wait for a batch flush.
+     */
+    private static final boolean WRITE_AHEAD_LOGGING = true;
 
-    private final Object databaseSyncLock = new Object();
+    /**
+     * Guards the statement cache and its statistics. Each table's statements are its own write lock.
+     */
+    private final Object statementsLock = new Object();
+
+    /**
+     * Guards seeding the id allocators.
+     */
+    private final Object idLock = new Object();
 
     /**
      * Get the writeable database of the open helper.
@@ -34,25 +60,54 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
     public SQLiteDatabase writeableDatabase;
 
     /**
-     * Get the readable database of the open helper.
+     * Get the readable database of the open helper. This is the same object as the writeable database, with
+     * write-ahead logging its queries run on a pooled read connection, next to a write transaction.
      */
     public SQLiteDatabase readableDatabase;
 
     /**
      * Hashmap containing all table names
      */
-    private List<TableNameMap> tableNames;
+    private static final List<TableNameMap> tableNames = new ArrayList<TableNameMap>();
+
+    static {
+        tableNames.add(new TableNameMap("ignoreitem", IgnoreItem.class));
+        tableNames.add(new TableNameMap("outboxitem", OutboxItem.class));
+        tableNames.add(new TableNameMap("keywordfilteritem", KeywordFilterItem.class));
+        tableNames.add(new TableNameMap("regexfilteritem", RegexFilterItem.class));
+    }
 
     /**
-     * Tablename to insert helper mapping.
+     * Tablename to compiled statements mapping.
      */
-    private HashMap<String, DatabaseUtils.InsertHelper> insertHelpers;
+    private final HashMap<String, TableStatements> statements = new HashMap<String, TableStatements>();
+
+    /**
+     * The compiled statements of the batch flush, see getFlushStatementScope.
+     */
+    private final StatementScope flushStatementScope = new StatementScope();
+
+    /**
+     * Statement cache statistics.
+     */
+    private long statementCacheHits = 0;
+    private long statementCacheMisses = 0;
 
     /**
      * The batch manager for insert queries.
      */
     private DatabaseBatchManager batchManager;
 
+    /**
+     * The amount of ids kept free for the rows of one raw insert.
+     */
+    private static final int RAW_INSERT_RESERVED_IDS = 100;
+
+    /**
+     * Tablename to the last id handed out, so queued rows get their id when they are queued.
+     */
+    private final ConcurrentHashMap<String, AtomicInteger> lastIds = new ConcurrentHashMap<String, AtomicInteger>();
+
     /**
      * The context used to create the open helper.
      */
@@ -66,9 +121,18 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
      * @return The DatabaseOpenHelper
      */
     public static DatabaseOpenHelper createInstance(Context context) {
-        if (instance == null)
-            instance = new DatabaseOpenHelper(context);
-        return instance;
+        DatabaseOpenHelper helper = instance;
+        if (helper == null) {
+            synchronized (DatabaseOpenHelper.class) {
+                helper = instance;
+                if (helper == null) {
+                    // Don't keep the activity alive
+                    helper = new DatabaseOpenHelper(context.getApplicationContext());
+                    instance = helper;
+                }
+            }
+        }
+        return helper;
     }
 
     /**
@@ -77,8 +141,18 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
      * @return The DatabaseOpenHelper instance.
      */
     public static DatabaseOpenHelper getInstance() {
-        if (instance == null)
+        DatabaseOpenHelper helper = instance;
+        if (helper == null)
             throw new NullPointerException("Call createInstance first!");
+        return helper;
+    }
+
+    /**
+     * Gets the instance of the DatabaseOpenHelper without opening the database.
+     *
+     * @return The DatabaseOpenHelper instance, or null when the database is not opened yet.
+     */
+    public static DatabaseOpenHelper getOpenInstance() {
         return instance;
     }
 
@@ -87,25 +161,119 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
         super(context, "frankkienl_livenotifications", null, DATABASE_VERSION);
         this.context = context;
 
-        this.tableNames = new ArrayList<TableNameMap>();
-        this.tableNames.add(new TableNameMap("ignoreitem", IgnoreItem.class));
-       
+        if (WRITE_AHEAD_LOGGING && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            this.setWriteAheadLoggingEnabled(true);
+
         this.writeableDatabase = this.getWritableDatabase();
         this.readableDatabase = this.getReadableDatabase();
 
+        if (WRITE_AHEAD_LOGGING && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB &&
+                Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+            this.writeableDatabase.enableWriteAheadLogging();
+
         this.batchManager = new DatabaseBatchManager(this);
     }
 
     /**
-     * Get the insert helper for a certain table.
+     * Executes the queued queries now, if there is an instance. Call this when the process may be killed.
+     */
+    public static void flushQueuedQueries() {
+        DatabaseOpenHelper helper = instance;
+        if (helper != null)
+            helper.batchManager.flush();
+    }
+
+    /**
+     * Executes the queued queries and stops the timer thread of the batch manager, if there is an instance.
+     */
+    public static void shutdownBatchManager() {
+        DatabaseOpenHelper helper = instance;
+        if (helper != null)
+            helper.batchManager.shutdown();
+    }
+
+    /**
+     * @return The batch manager that executes the queued queries.
+     */
+    public DatabaseBatchManager getBatchManager() {
+        return this.batchManager;
+    }
+
+    /**
+     * Get the compiled statements for a certain table, compiles them on first use.
+     * Synchronize on the returned statements while binding and executing them.
+     *
+     * @param tableName The name of the table you'd like to get the statements for.
+     * @return The statements, or null if the table does not exist.
+     */
+    private TableStatements getStatements(String tableName) {
+        synchronized (statementsLock) {
+            TableStatements tableStatements = this.statements.get(tableName);
+            if (tableStatements != null) {
+                this.statementCacheHits++;
+                return tableStatements;
+            }
+            this.statementCacheMisses++;
+            tableStatements = this.compileStatements(tableName);
+            if (tableStatements != null)
+                this.statements.put(tableName, tableStatements);
+            return tableStatements;
+        }
+    }
+
+    /**
+     * Compiles the statements for a certain table.
+     *
+     * @param tableName The name of the table you'd like to compile the statements for.
+     * @return The statements, or null if the table does not exist.
+     */
+    private TableStatements compileStatements(String tableName) {
+        Class<? extends DatabaseRow> tableClass = getTableClass(tableName);
+        if (tableClass == null)
+            return null;
+        return new TableStatements(this.writeableDatabase, tableName, TableDescriptor.forClass(tableClass));
+    }
+
+    /**
+     * Get the statements of the batch flush. They are compiled once per table, like the statement cache, but
+     * only the flush uses them: a cached statement can't be used inside the flush transaction, as another thread
+     * may hold its lock while it waits for the connection the transaction holds.
+     * Only use them while holding the flush lock of the batch manager.
      *
-     * @param tableName The name of the table you'd like to get the insert helper from.
-     * @return The inserthelper, or null if none exists.
+     * @return The statements of the flush.
+     */
+    public StatementScope getFlushStatementScope() {
+        return this.flushStatementScope;
+    }
+
+    /**
+     * @return The amount of times compiled statements were reused.
+     */
+    public long getStatementCacheHits() {
+        synchronized (statementsLock) {
+            return this.statementCacheHits;
+        }
+    }
+
+    /**
+     * @return The amount of times statements had to be compiled.
      */
-    public DatabaseUtils.InsertHelper getInsertHelper(String tableName) {
-        for (Map.Entry<String, DatabaseUtils.InsertHelper> entry : this.insertHelpers.entrySet()) {
-            if (entry.getKey().equals(tableName))
-                return entry.getValue();
+    public long getStatementCacheMisses() {
+        synchronized (statementsLock) {
+            return this.statementCacheMisses;
+        }
+    }
+
+    /**
+     * Get the class corresponding to a certain table name.
+     *
+     * @param tableName The table name you'd like to get the class for.
+     * @return The class, or null otherwise!
+     */
+    public static Class<? extends DatabaseRow> getTableClass(String tableName) {
+        for (TableNameMap entry : tableNames) {
+            if (entry.tableName.equals(tableName))
+                return entry.tableClass;
         }
         return null;
     }
@@ -116,8 +284,8 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
      * @param c The Class definition you'd like to get the table name for.
      * @return The tablename, or null otherwise!
      */
-    public String getTableName(Class c) {
-        for (TableNameMap entry : this.tableNames) {
+    public static String getTableName(Class<? extends DatabaseRow> c) {
+        for (TableNameMap entry : tableNames) {
             if (entry.tableClass == c)
                 return entry.tableName;
         }
@@ -128,17 +296,27 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
     public void onOpen(SQLiteDatabase sqLiteDatabase) {
         super.onOpen(sqLiteDatabase);
 
-        this.insertHelpers = new HashMap<String, DatabaseUtils.InsertHelper>();
-        for (TableNameMap tableNameMap : this.tableNames) {
-            this.insertHelpers.put(tableNameMap.tableName, new DatabaseUtils.InsertHelper(sqLiteDatabase, tableNameMap.tableName));
+        // Compiled statements belong to the previous connection
+        synchronized (statementsLock) {
+            for (TableStatements tableStatements : this.statements.values()) {
+                tableStatements.close();
+            }
+            this.statements.clear();
+        }
+        this.flushStatementScope.close();
+        synchronized (idLock) {
+            this.lastIds.clear();
         }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         // Drop the table as it's subject to change while testing!
-        for (TableNameMap tableNameMap : this.tableNames) {
+        for (TableNameMap tableNameMap : tableNames) {
             db.execSQL(this.createTable(tableNameMap.tableClass, tableNameMap.tableName));
+            for (String createIndex : this.createIndexes(tableNameMap.tableClass, tableNameMap.tableName)) {
+                db.execSQL(createIndex);
+            }
         }               
     }
 
@@ -150,31 +328,23 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
         i1.description = "ignore Toast";
         i1.appName = "android";
         i1.onInsert();
+        // By package name, labels differ per locale ("System-UI", "Systeem-UI")
         IgnoreItem i2 = new IgnoreItem();
-        i2.packageName = "android";
+        i2.packageName = "com.android.systemui";
         i2.description = "trust me on this one";
-        i2.appName = "System-UI";
+        i2.appName = "";
         i2.onInsert();
         IgnoreItem i3 = new IgnoreItem();
-        i3.packageName = "android";
-        i3.description = "vertrouw me, dit is nodig";
-        i3.appName = "Systeem-UI";
+        i3.packageName = "com.google.android.googlequicksearchbox";
+        i3.description = "trust me on this one";
+        i3.appName = "";
         i3.onInsert();
-        IgnoreItem i4 = new IgnoreItem();
-        i4.packageName = "android";
-        i4.description = "vertrouw me, dit is nodig";
-        i4.appName = "Google Zoeken";
-        i4.onInsert();
-        IgnoreItem i5 = new IgnoreItem();
-        i5.packageName = "android";
-        i5.description = "trust me on this one";
-        i5.appName = "Google Search";
-        i5.onInsert();
     }
     
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i2) {
-        //not needed yet
+        // Only new tables and indexes so far, IF NOT EXISTS leaves the existing ones alone.
+        this.onCreate(sqLiteDatabase);
     }
 
     /**
@@ -186,15 +356,198 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
      * @param mayQueue      If the insert is allowed to be queued (the DatabaseRow will receive the ID of the inserted row)
      */
     public void synchronizedInsert(String tableName, ContentValues contentValues, DatabaseRow databaseRow, Boolean mayQueue) {
+        int id = this.allocateId(tableName);
         if (mayQueue) {
+            databaseRow.id = id;
             this.batchManager.queueInsert(tableName, contentValues, databaseRow);
         } else {
-            synchronized (databaseSyncLock) {
-                databaseRow.id = (int) this.writeableDatabase.insert(tableName, null, contentValues);
+            databaseRow.id = this.compiledInsert(tableName, id, contentValues) == -1 ? -1 : id;
+        }
+    }
+
+    /**
+     * Hands out the next id of a table. The first call reads the highest id in use from the database.
+     *
+     * @param tableName The table name.
+     * @return The id the next inserted row must get.
+     */
+    public int allocateId(String tableName) {
+        AtomicInteger lastId = this.lastIds.get(tableName);
+        if (lastId == null) {
+            synchronized (idLock) {
+                lastId = this.getLastId(tableName);
+            }
+        }
+        return lastId.incrementAndGet();
+    }
+
+    /**
+     * Get the id allocator of a table, seeds it from the database when there is none yet.
+     *
+     * @param tableName The table name.
+     * @return The allocator.
+     */
+    private AtomicInteger getLastId(String tableName) {
+        AtomicInteger lastId = this.lastIds.get(tableName);
+        if (lastId != null)
+            return lastId;
+        AtomicInteger seeded = new AtomicInteger(this.queryLastId(tableName));
+        lastId = this.lastIds.putIfAbsent(tableName, seeded);
+        return lastId == null ? seeded : lastId;
+    }
+
+    /**
+     * Executes a raw insert, SQLite's AUTOINCREMENT gives its rows their ids. Call in the transaction that
+     * executes it; it does not take idLock, as the calling thread holds the connection.
+     * The id allocators are moved past the inserted rows right away, so rows queued after it, also later in the
+     * same flush, don't get one of their ids.
+     *
+     * @param db       The database to execute on.
+     * @param rawQuery The raw insert query.
+     * @throws SQLiteException When the insert used more ids than were kept free and some of them were handed out
+     *                         already, the transaction must be rolled back.
+     */
+    public void executeRawInsert(SQLiteDatabase db, String rawQuery) {
+        int[] reservedLastIds = this.reserveIdsForRawInsert(db);
+        db.execSQL(rawQuery);
+        for (int i = 0; i < tableNames.size(); i++) {
+            String tableName = tableNames.get(i).tableName;
+            int inserted = this.queryLastId(tableName);
+            AtomicInteger lastId = this.getLastId(tableName);
+            while (true) {
+                int current = lastId.get();
+                if (inserted > reservedLastIds[i] && current > reservedLastIds[i]) {
+                    throw new SQLiteException("Raw insert into " + tableName + " used ids up to " + inserted +
+                            ", only up to " + reservedLastIds[i] + " were kept free");
+                }
+                if (current >= inserted || lastId.compareAndSet(current, inserted))
+                    break;
             }
         }
     }
 
+    /**
+     * Keeps the next ids of every table free for a raw insert. sqlite_sequence does not know about the ids handed
+     * out to queued rows, so a block of ids is taken from each allocator and sqlite_sequence is set just below it.
+     *
+     * @param db The database the raw insert is executed on.
+     * @return The last id kept free, per table in the order of tableNames.
+     */
+    private int[] reserveIdsForRawInsert(SQLiteDatabase db) {
+        int[] reservedLastIds = new int[tableNames.size()];
+        for (int i = 0; i < tableNames.size(); i++) {
+            String tableName = tableNames.get(i).tableName;
+            int last = this.getLastId(tableName).getAndAdd(RAW_INSERT_RESERVED_IDS);
+            db.execSQL("UPDATE `sqlite_sequence` SET `seq` = ? WHERE `name` = ? AND `seq` < ?",
+                    new Object[]{last, tableName, last});
+            db.execSQL("INSERT INTO `sqlite_sequence` (`name`, `seq`) SELECT ?, ? WHERE NOT EXISTS " +
+                    "(SELECT 1 FROM `sqlite_sequence` WHERE `name` = ?)", new Object[]{tableName, last, tableName});
+            reservedLastIds[i] = last + RAW_INSERT_RESERVED_IDS;
+        }
+        return reservedLastIds;
+    }
+
+    /**
+     * Get the highest id a table ever used, AUTOINCREMENT never reuses ids of deleted rows either.
+     *
+     * @param tableName The table name.
+     * @return The highest id.
+     */
+    private int queryLastId(String tableName) {
+        long maxId = DatabaseUtils.longForQuery(this.writeableDatabase,
+                "SELECT IFNULL(MAX(`id`), 0) FROM `" + tableName + "`", null);
+        long sequence = DatabaseUtils.longForQuery(this.writeableDatabase,
+                "SELECT IFNULL(MAX(`seq`), 0) FROM `sqlite_sequence` WHERE `name` = ?", new String[]{tableName});
+        return (int) Math.max(maxId, sequence);
+    }
+
+    /**
+     * Inserts a row with the compiled insert statement of the table.
+     *
+     * @param tableName     The table name that is inserted in.
+     * @param id            The id of the row, from allocateId.
+     * @param contentValues The inserted values.
+     * @return The id of the inserted row, or -1 on failure.
+     */
+    public long compiledInsert(String tableName, int id, ContentValues contentValues) {
+        TableStatements tableStatements = this.getStatements(tableName);
+        if (tableStatements == null)
+            return this.insertWithId(tableName, id, contentValues);
+        synchronized (tableStatements) {
+            return tableStatements.insert(id, contentValues);
+        }
+    }
+
+    /**
+     * Updates a row by id with the compiled update statement of the table.
+     *
+     * @param tableName     The table name that is updated in.
+     * @param contentValues The updated values.
+     * @param id            The id of the row.
+     */
+    public void compiledUpdate(String tableName, ContentValues contentValues, int id) {
+        TableStatements tableStatements = this.getStatements(tableName);
+        if (tableStatements == null) {
+            this.writeableDatabase.update(tableName, contentValues, "`id` = ?", new String[]{String.valueOf(id)});
+            return;
+        }
+        synchronized (tableStatements) {
+            tableStatements.update(id, contentValues);
+        }
+    }
+
+    /**
+     * Deletes a row by id with the compiled delete statement of the table.
+     *
+     * @param tableName The table name that is deleted from.
+     * @param id        The id of the row.
+     */
+    public void compiledDelete(String tableName, int id) {
+        TableStatements tableStatements = this.getStatements(tableName);
+        if (tableStatements == null) {
+            this.writeableDatabase.delete(tableName, "`id` = ?", new String[]{String.valueOf(id)});
+            return;
+        }
+        synchronized (tableStatements) {
+            tableStatements.delete(id);
+        }
+    }
+
+    /**
+     * Checks if a row exists, with the compiled exists statement of the table.
+     *
+     * @param tableName The table name.
+     * @param id        The id of the row.
+     * @return If the row exists.
+     */
+    public boolean compiledExists(String tableName, int id) {
+        DatabaseBatchManager.PendingRow pendingRow = this.batchManager.getPendingRow(tableName, id);
+        if (pendingRow != null)
+            return !pendingRow.deleted;
+
+        TableStatements tableStatements = this.getStatements(tableName);
+        if (tableStatements == null)
+            return DatabaseUtils.longForQuery(this.readableDatabase, "SELECT COUNT(*) FROM `" + tableName + "` WHERE `id` = ?",
+                    new String[]{String.valueOf(id)}) > 0;
+        synchronized (tableStatements) {
+            return tableStatements.exists(id);
+        }
+    }
+
+    /**
+     * Inserts a row without a compiled statement.
+     *
+     * @param tableName     The table name that is inserted in.
+     * @param id            The id of the row.
+     * @param contentValues The inserted values.
+     * @return The id of the inserted row, or -1 on failure.
+     */
+    private long insertWithId(String tableName, int id, ContentValues contentValues) {
+        ContentValues values = new ContentValues(contentValues);
+        values.put("id", id);
+        return this.writeableDatabase.insert(tableName, null, values);
+    }
+
     /**
      * Performs a synchronized insert of an insert query.
      *
@@ -205,8 +558,12 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
         if (mayQueue) {
             this.batchManager.queueInsert(rawQuery);
         } else {
-            synchronized (databaseSyncLock) {
-                this.writeableDatabase.execSQL(rawQuery);
+            this.writeableDatabase.beginTransaction();
+            try {
+                this.executeRawInsert(this.writeableDatabase, rawQuery);
+                this.writeableDatabase.setTransactionSuccessful();
+            } finally {
+                this.writeableDatabase.endTransaction();
             }
         }
     }
@@ -223,9 +580,26 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
         if (mayQueue) {
             this.batchManager.queueUpdate(tableName, contentValues, whereClause);
         } else {
-            synchronized (databaseSyncLock) {
-                this.writeableDatabase.update(tableName, contentValues, whereClause, null);
-            }
+            this.writeableDatabase.update(tableName, contentValues, whereClause, null);
+        }
+    }
+
+    /**
+     * Performs a synchronized update of a row by its id.
+     *
+     * @param tableName     The table name that is updated in.
+     * @param contentValues The updated values.
+     * @param databaseRow   The row that must be updated. When queued, its id is read when the update is executed.
+     * @param mayQueue      If the update is allowed to be queued.
+     */
+    public void synchronizedUpdate(String tableName, ContentValues contentValues, DatabaseRow databaseRow, Boolean mayQueue) {
+        if (mayQueue) {
+            this.batchManager.queueUpdate(tableName, contentValues, databaseRow);
+        } else {
+            // The queued writes of this row must go first
+            if (this.batchManager.getPendingRow(tableName, databaseRow.id) != null)
+                this.batchManager.flush();
+            this.compiledUpdate(tableName, contentValues, databaseRow.id);
         }
     }
 
@@ -239,9 +613,7 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
         if (mayQueue) {
             this.batchManager.queueUpdate(rawQuery);
         } else {
-            synchronized (databaseSyncLock) {
-                this.writeableDatabase.execSQL(rawQuery);
-            }
+            this.writeableDatabase.execSQL(rawQuery);
         }
     }
 
@@ -255,10 +627,83 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
         if (mayQueue) {
             this.batchManager.queueDelete(rawQuery);
         } else {
-            synchronized (databaseSyncLock) {
-                this.writeableDatabase.execSQL(rawQuery);
+            this.writeableDatabase.execSQL(rawQuery);
+        }
+    }
+
+    /**
+     * Performs a synchronized delete of a row by its id.
+     *
+     * @param tableName   The table name that is deleted from.
+     * @param databaseRow The row that must be deleted. When queued, its id is read when the delete is executed.
+     * @param mayQueue    If the query may be queued or not.
+     */
+    public void synchronizedDelete(String tableName, DatabaseRow databaseRow, Boolean mayQueue) {
+        if (mayQueue) {
+            this.batchManager.queueDelete(tableName, databaseRow);
+        } else {
+            // The queued writes of this row must go first
+            if (this.batchManager.getPendingRow(tableName, databaseRow.id) != null)
+                this.batchManager.flush();
+            this.compiledDelete(tableName, databaseRow.id);
+        }
+    }
+
+    /**
+     * Get the queued state of a row, which is not in the database yet.
+     *
+     * @param tableName The table name.
+     * @param id        The id of the row.
+     * @return The queued state, or null when there are no queued writes for the row.
+     */
+    public DatabaseBatchManager.PendingRow getPendingRow(String tableName, int id) {
+        return this.batchManager.getPendingRow(tableName, id);
+    }
+
+    /**
+     * Get the queued state of all rows with queued writes in a table.
+     *
+     * @param tableName The table name.
+     * @return The queued states.
+     */
+    public List<DatabaseBatchManager.PendingRow> getPendingRows(String tableName) {
+        return this.batchManager.getPendingRows(tableName);
+    }
+
+    /**
+     * Finds the ids of the rows matching all column values, including the queued writes that are
+     * not in the database yet.
+     *
+     * @param tableName The table name.
+     * @param columns   The column names.
+     * @param values    The values of the columns, as stored in the database.
+     * @return The ids of the matching rows.
+     */
+    public List<Integer> findIds(String tableName, List<String> columns, List<String> values) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (DatabaseBatchManager.PendingRow pendingRow : this.batchManager.getPendingRows(tableName)) {
+            if (!pendingRow.deleted && pendingRow.matches(columns, values))
+                ids.add(pendingRow.id);
+        }
+
+        List<String> queryAddition = new ArrayList<String>();
+        for (String column : columns) {
+            queryAddition.add("`" + column + "` = ?");
+        }
+        String query = "SELECT `id` FROM `" + tableName + "` WHERE " + Utils.join(queryAddition, " AND ");
+
+        Cursor cursor = this.readableDatabase.rawQuery(query, values.toArray(new String[values.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                int id = cursor.getInt(0);
+                // Rows with queued writes were matched on their queued state above
+                if (!ids.contains(id) && this.batchManager.getPendingRow(tableName, id) == null)
+                    ids.add(id);
             }
+        } finally {
+            cursor.close();
         }
+        return ids;
     }
 
     /**
@@ -268,7 +713,7 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
      * @param tableName The name of the table you'd like to have created.
      * @return The string containing the CREATE TABLE query;
      */
-    public String createTable(Class c, String tableName) {
+    public String createTable(Class<? extends DatabaseRow> c, String tableName) {
         Field[] fields = c.getFields();
         if (fields.length == 0) {
             throw new IllegalArgumentException("Cannot create Create Table SQL string from class without fields.");
@@ -320,11 +765,308 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
         return result;
     }
 
-    private class TableNameMap {
+    /**
+     * Makes the create index queries from the DatabaseIndex and DatabaseUnique annotations of a class definition.
+     * The columns of an index are sorted by their order() and then by field name, Class.getFields() has no fixed order.
+     *
+     * @param c         The class definition you'd like to create the indexes for.
+     * @param tableName The name of the table the indexes are created on.
+     * @return The strings containing the CREATE INDEX queries.
+     */
+    public List<String> createIndexes(Class<? extends DatabaseRow> c, String tableName) {
+        TreeMap<String, List<IndexColumn>> indexColumns = new TreeMap<String, List<IndexColumn>>();
+        HashSet<String> uniqueIndexes = new HashSet<String>();
+        HashSet<String> plainIndexes = new HashSet<String>();
+
+        for (Field field : c.getFields()) {
+            if (field.isAnnotationPresent(DatabaseExclude.class))
+                continue;
+
+            DatabaseIndex index = field.getAnnotation(DatabaseIndex.class);
+            if (index != null) {
+                String indexName = this.getIndexName(tableName, index.value(), field.getName(), "index");
+                this.addIndexColumn(indexColumns, indexName, new IndexColumn(field.getName(), index.order()));
+                plainIndexes.add(indexName);
+            }
+
+            DatabaseUnique unique = field.getAnnotation(DatabaseUnique.class);
+            if (unique != null) {
+                String indexName = this.getIndexName(tableName, unique.value(), field.getName(), "unique");
+                this.addIndexColumn(indexColumns, indexName, new IndexColumn(field.getName(), unique.order()));
+                uniqueIndexes.add(indexName);
+            }
+        }
+
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, List<IndexColumn>> entry : indexColumns.entrySet()) {
+            boolean unique = uniqueIndexes.contains(entry.getKey());
+            if (unique && plainIndexes.contains(entry.getKey())) {
+                throw new UnsupportedOperationException("Index " + entry.getKey() + " cannot be both unique and not unique.");
+            }
+            List<IndexColumn> columns = entry.getValue();
+            Collections.sort(columns);
+            List<String> columnNames = new ArrayList<String>(columns.size());
+            for (IndexColumn column : columns) {
+                columnNames.add("`" + column.fieldName + "`");
+            }
+            result.add("CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS `" + entry.getKey() + "` ON `" +
+                    tableName + "` (" + Utils.join(columnNames, ", ") + ")");
+        }
+        return result;
+    }
+
+    /**
+     * Get the name of an index. Index names are global in SQLite, so they are prefixed with the table name.
+     *
+     * @param tableName The name of the table.
+     * @param name      The name given in the annotation, may be empty.
+     * @param fieldName The name of the annotated field, used when the name is empty.
+     * @param suffix    The suffix used when the name is empty.
+     * @return The name of the index.
+     */
+    private String getIndexName(String tableName, String name, String fieldName, String suffix) {
+        if (name.length() == 0)
+            return tableName + "_" + fieldName + "_" + suffix;
+        return tableName + "_" + name;
+    }
+
+    /**
+     * Adds a column to an index.
+     *
+     * @param indexColumns The index name to columns mapping.
+     * @param indexName    The name of the index.
+     * @param column       The column.
+     */
+    private void addIndexColumn(TreeMap<String, List<IndexColumn>> indexColumns, String indexName, IndexColumn column) {
+        if (!indexColumns.containsKey(indexName)) {
+            indexColumns.put(indexName, new ArrayList<IndexColumn>());
+        }
+        indexColumns.get(indexName).add(column);
+    }
+
+    /**
+     * A column of an index, sorted by order and then by name.
+     */
+    private static class IndexColumn implements Comparable<IndexColumn> {
+        private final String fieldName;
+        private final int order;
+
+        private IndexColumn(String fieldName, int order) {
+            this.fieldName = fieldName;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(IndexColumn other) {
+            if (this.order != other.order)
+                return this.order < other.order ? -1 : 1;
+            return this.fieldName.compareTo(other.fieldName);
+        }
+    }
+
+    /**
+     * Statements of one thread at a time, for a write transaction, so it never waits for the lock of a cached
+     * statement. Not thread safe.
+     */
+    public class StatementScope {
+        private final HashMap<String, TableStatements> scopeStatements = new HashMap<String, TableStatements>();
+
+        private StatementScope() {
+        }
+
+        /**
+         * Get the statements of a table, compiles them on first use in this scope.
+         *
+         * @param tableName The name of the table you'd like to get the statements for.
+         * @return The statements, or null if the table does not exist.
+         */
+        private TableStatements getStatements(String tableName) {
+            if (this.scopeStatements.containsKey(tableName))
+                return this.scopeStatements.get(tableName);
+            TableStatements tableStatements = compileStatements(tableName);
+            this.scopeStatements.put(tableName, tableStatements);
+            return tableStatements;
+        }
+
+        /**
+         * Inserts a row in this scope.
+         *
+         * @param tableName     The table name that is inserted in.
+         * @param id            The id of the row, from allocateId.
+         * @param contentValues The inserted values.
+         * @return The id of the inserted row, or -1 on failure.
+         */
+        public long insert(String tableName, int id, ContentValues contentValues) {
+            TableStatements tableStatements = this.getStatements(tableName);
+            if (tableStatements == null)
+                return insertWithId(tableName, id, contentValues);
+            return tableStatements.insert(id, contentValues);
+        }
+
+        /**
+         * Updates a row by id in this scope.
+         *
+         * @param tableName     The table name that is updated in.
+         * @param contentValues The updated values.
+         * @param id            The id of the row.
+         */
+        public void update(String tableName, ContentValues contentValues, int id) {
+            TableStatements tableStatements = this.getStatements(tableName);
+            if (tableStatements == null)
+                writeableDatabase.update(tableName, contentValues, "`id` = ?", new String[]{String.valueOf(id)});
+            else
+                tableStatements.update(id, contentValues);
+        }
+
+        /**
+         * Deletes a row by id in this scope.
+         *
+         * @param tableName The table name that is deleted from.
+         * @param id        The id of the row.
+         */
+        public void delete(String tableName, int id) {
+            TableStatements tableStatements = this.getStatements(tableName);
+            if (tableStatements == null)
+                writeableDatabase.delete(tableName, "`id` = ?", new String[]{String.valueOf(id)});
+            else
+                tableStatements.delete(id);
+        }
+
+        /**
+         * Closes the statements of this scope, they are compiled again on next use.
+         */
+        public void close() {
+            for (TableStatements tableStatements : this.scopeStatements.values()) {
+                if (tableStatements != null)
+                    tableStatements.close();
+            }
+            this.scopeStatements.clear();
+        }
+    }
+
+    /**
+     * The compiled statements of one table. The columns are bound in the order of the TableDescriptor.
+     * Not thread safe, synchronize on the instance when it is shared.
+     */
+    private static class TableStatements {
+        private final SQLiteDatabase database;
+        private final String tableName;
+        public final String[] columns;
+        public final SQLiteStatement insert;
+        public final SQLiteStatement updateById;
+        public final SQLiteStatement deleteById;
+        public final SQLiteStatement existsById;
+
+        private TableStatements(SQLiteDatabase database, String tableName, TableDescriptor descriptor) {
+            this.database = database;
+            this.tableName = tableName;
+            this.columns = descriptor.getColumnNames().toArray(new String[0]);
+
+            List<String> quoted = new ArrayList<String>();
+            List<String> placeholders = new ArrayList<String>();
+            List<String> assignments = new ArrayList<String>();
+            for (String column : this.columns) {
+                quoted.add("`" + column + "`");
+                placeholders.add("?");
+                assignments.add("`" + column + "` = ?");
+            }
+
+            this.insert = database.compileStatement("INSERT INTO `" + tableName + "` (`id`, " + Utils.join(quoted, ", ") +
+                    ") VALUES (?, " + Utils.join(placeholders, ", ") + ")");
+            this.updateById = database.compileStatement("UPDATE `" + tableName + "` SET " + Utils.join(assignments, ", ") +
+                    " WHERE `id` = ?");
+            this.deleteById = database.compileStatement("DELETE FROM `" + tableName + "` WHERE `id` = ?");
+            this.existsById = database.compileStatement("SELECT COUNT(*) FROM `" + tableName + "` WHERE `id` = ?");
+        }
+
+        /**
+         * Inserts a row, falls back to a plain insert when the values don't match the columns.
+         *
+         * @param id            The id of the row.
+         * @param contentValues The inserted values.
+         * @return The id of the inserted row, or -1 on failure.
+         */
+        private long insert(int id, ContentValues contentValues) {
+            if (!this.bindColumns(this.insert, contentValues, 1)) {
+                ContentValues values = new ContentValues(contentValues);
+                values.put("id", id);
+                return this.database.insert(this.tableName, null, values);
+            }
+            this.insert.bindLong(1, id);
+            return this.insert.executeInsert();
+        }
+
+        /**
+         * Updates a row by id, falls back to a plain update when the values don't match the columns.
+         *
+         * @param id            The id of the row.
+         * @param contentValues The updated values.
+         */
+        private void update(int id, ContentValues contentValues) {
+            if (!this.bindColumns(this.updateById, contentValues, 0)) {
+                this.database.update(this.tableName, contentValues, "`id` = ?", new String[]{String.valueOf(id)});
+                return;
+            }
+            this.updateById.bindLong(this.columns.length + 1, id);
+            this.updateById.execute();
+        }
+
+        /**
+         * Deletes a row by id.
+         *
+         * @param id The id of the row.
+         */
+        private void delete(int id) {
+            this.deleteById.bindLong(1, id);
+            this.deleteById.execute();
+        }
+
+        /**
+         * Checks if a row exists.
+         *
+         * @param id The id of the row.
+         * @return If the row exists.
+         */
+        private boolean exists(int id) {
+            this.existsById.bindLong(1, id);
+            return this.existsById.simpleQueryForLong() > 0;
+        }
+
+        /**
+         * Binds the content values to the column parameters of a statement.
+         *
+         * @param offset The amount of parameters before the column parameters.
+         * @return False if the content values do not have exactly the columns of the table.
+         */
+        private boolean bindColumns(SQLiteStatement statement, ContentValues contentValues, int offset) {
+            if (contentValues.size() != this.columns.length)
+                return false;
+            statement.clearBindings();
+            for (int i = 0; i < this.columns.length; i++) {
+                if (!contentValues.containsKey(this.columns[i]))
+                    return false;
+                String value = contentValues.getAsString(this.columns[i]);
+                if (value == null)
+                    statement.bindNull(offset + i + 1);
+                else
+                    statement.bindString(offset + i + 1, value);
+            }
+            return true;
+        }
+
+        private void close() {
+            this.insert.close();
+            this.updateById.close();
+            this.deleteById.close();
+            this.existsById.close();
+        }
+    }
+
+    private static class TableNameMap {
         public String tableName;
-        public Class tableClass;
+        public Class<? extends DatabaseRow> tableClass;
 
-        private TableNameMap(String tableName, Class tableClass) {
+        private TableNameMap(String tableName, Class<? extends DatabaseRow> tableClass) {
             this.tableName = tableName;
             this.tableClass = tableClass;
         }
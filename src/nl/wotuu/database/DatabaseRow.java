@@ -2,16 +2,20 @@ package nl.wotuu.database;
 
 import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteMisuseException;
 import java.io.Serializable;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import nl.wotuu.database.annotations.DatabaseExclude;
 import nl.wotuu.database.annotations.DatabasePrimaryKey;
@@ -100,10 +104,8 @@ public abstract class DatabaseRow implements ISaveable, Serializable {
             contentValues.put(fieldNames.get(i), fieldValues.get(i));
         }
 
-        String whereClause = "`id` = '" + this.id + "';";
-
         if (!DatabaseRow.NO_QUERIES) {
-            helper.synchronizedUpdate(this.tableName, contentValues, whereClause, mayQueue);
+            helper.synchronizedUpdate(this.tableName, contentValues, this, mayQueue);
         }
     }
 
@@ -123,11 +125,9 @@ public abstract class DatabaseRow implements ISaveable, Serializable {
             throw new SQLiteMisuseException("Cannot delete user whose ID is not set!");
 
         DatabaseOpenHelper helper = DatabaseOpenHelper.getInstance();
-        String query = "DELETE FROM `" + this.tableName + "`" +
-                "WHERE `id` = '" + this.id + "'";
 
         if (!DatabaseRow.NO_QUERIES) {
-            helper.synchronizedDelete(query, mayQueue);
+            helper.synchronizedDelete(this.tableName, this, mayQueue);
         }
     }
 
@@ -139,6 +139,51 @@ public abstract class DatabaseRow implements ISaveable, Serializable {
         this.onDelete(false);
     }
 
+    /**
+     * Inserts this row on the DatabaseExecutor thread.
+     *
+     * @param callback Receives this row, with its id set, on the main thread. May be null.
+     * @return The future of this row.
+     */
+    public Future<DatabaseRow> onInsertAsync(DatabaseExecutor.Callback<DatabaseRow> callback) {
+        return DatabaseExecutor.getInstance().submit(new Callable<DatabaseRow>() {
+            public DatabaseRow call() {
+                onInsert();
+                return DatabaseRow.this;
+            }
+        }, callback);
+    }
+
+    /**
+     * Updates this row on the DatabaseExecutor thread.
+     *
+     * @param callback Receives this row on the main thread. May be null.
+     * @return The future of this row.
+     */
+    public Future<DatabaseRow> onUpdateAsync(DatabaseExecutor.Callback<DatabaseRow> callback) {
+        return DatabaseExecutor.getInstance().submit(new Callable<DatabaseRow>() {
+            public DatabaseRow call() {
+                onUpdate();
+                return DatabaseRow.this;
+            }
+        }, callback);
+    }
+
+    /**
+     * Deletes this row on the DatabaseExecutor thread.
+     *
+     * @param callback Receives this row on the main thread. May be null.
+     * @return The future of this row.
+     */
+    public Future<DatabaseRow> onDeleteAsync(DatabaseExecutor.Callback<DatabaseRow> callback) {
+        return DatabaseExecutor.getInstance().submit(new Callable<DatabaseRow>() {
+            public DatabaseRow call() {
+                onDelete();
+                return DatabaseRow.this;
+            }
+        }, callback);
+    }
+
     /**
      * @inheritDoc
      */
@@ -152,34 +197,18 @@ public abstract class DatabaseRow implements ISaveable, Serializable {
      */
     public Boolean inDatabase(List<String> compareColumns) {
         DatabaseOpenHelper helper = DatabaseOpenHelper.getInstance();
-        SQLiteDatabase readableDatabase = helper.readableDatabase;
-        String query = "SELECT `id` FROM `" + this.tableName + "` WHERE ";
 
-        if (this.id < 1) {
-            List<String> fieldValues = this.getDatabaseFieldValues(compareColumns);
-
-            List<String> queryAddition = new ArrayList<String>();
-            for (int i = 0; i < compareColumns.size(); i++) {
-                queryAddition.add("`" + compareColumns.get(i) + "` = " + DatabaseUtils.sqlEscapeString(fieldValues.get(i)));
-            }
+        if (DatabaseRow.NO_QUERIES)
+            return false;
 
-            query += Utils.join(queryAddition, " AND ");
-        } else
-            query += "`id` = '" + this.id + "'";
+        if (this.id >= 1)
+            return helper.compiledExists(this.tableName, this.id);
 
-        if (!DatabaseRow.NO_QUERIES) {
-            // synchronized (readableDatabase){
-            Cursor cursor = readableDatabase.rawQuery(query, null);
-            try {
-                if (cursor.moveToFirst()) {
-                    this.id = cursor.getInt(0);
-                    cursor.close();
-                    return true;
-                }
-            } finally {
-                // Close the cursor
-                cursor.close();
-            }
+        // Also finds the rows that are queued and not in the database yet
+        List<Integer> ids = helper.findIds(this.tableName, compareColumns, this.getDatabaseFieldValues(compareColumns));
+        if (ids.size() > 0) {
+            this.id = ids.get(0);
+            return true;
         }
 
         return false;
@@ -206,27 +235,24 @@ public abstract class DatabaseRow implements ISaveable, Serializable {
 
         DatabaseOpenHelper helper = DatabaseOpenHelper.getInstance();
         SQLiteDatabase readableDatabase = helper.readableDatabase;
-        String query = "SELECT * FROM `" + this.tableName + "` WHERE `id` = '" + this.id + "'";
+        String query = "SELECT * FROM `" + this.tableName + "` WHERE `id` = ?";
 
         if (!DatabaseRow.NO_QUERIES) {
-            Cursor cursor = readableDatabase.rawQuery(query, null);
+            // Queued writes are not in the database yet
+            DatabaseBatchManager.PendingRow pendingRow = helper.getPendingRow(this.tableName, this.id);
+            if (pendingRow != null) {
+                if (pendingRow.deleted)
+                    Logger.e("Cannot find database row with id = '" + this.id + "'!");
+                else
+                    this.getTableDescriptor().readValues(this, pendingRow.values);
+                return;
+            }
+
+            Cursor cursor = readableDatabase.rawQuery(query, new String[]{String.valueOf(this.id)});
             try {
-                Field[] fields = this.getDatabaseFields();
                 if (cursor.moveToFirst()) {
-                    for (int i = 0; i < cursor.getColumnCount(); i++) {
-                        String columnName = cursor.getColumnName(i);
-                        for (Field field : fields) {
-                            if (field.getName().equals(columnName)) {
-                                try {
-                                    field.set(this, this.getValueOfCursor(cursor, field.getType(), i));
-                                    break;
-                                } catch (IllegalAccessException e) {
-                                    throw new NullPointerException("Cannot fetch value from database! Type of column name " +
-                                            columnName + " is not supported.");
-                                }
-                            }
-                        }
-                    }
+                    TableDescriptor descriptor = this.getTableDescriptor();
+                    descriptor.readRow(this, cursor, descriptor.mapColumns(cursor));
                 } else Logger.e("Cannot find database row with id = '" + this.id + "'!");
             } finally {
                 // Close the cursor
@@ -247,46 +273,27 @@ public abstract class DatabaseRow implements ISaveable, Serializable {
         }
 
         // Check if this user's ID is set
-        SQLiteDatabase readableDatabase = DatabaseOpenHelper.getInstance().readableDatabase;
-        String query = "SELECT `id` " +
-                "FROM `" + DatabaseOpenHelper.getInstance().getTableName(this.getClass()) + "`";
+        DatabaseOpenHelper helper = DatabaseOpenHelper.getInstance();
+        String tableName = DatabaseOpenHelper.getTableName(this.getClass());
 
         List<String> values = this.getDatabaseFieldValues(columnNames);
 
-        List<String> queryAddition = new ArrayList<String>();
-        int count = 0;
-        for (String value : values) {
-            queryAddition.add(" `" + columnNames.get(count) + "` = " + DatabaseUtils.sqlEscapeString(value));
-            count++;
-        }
-
-        if (queryAddition.size() == 0) {
+        if (values.size() == 0) {
             throw new DatabaseLoadException(this, "Unable to load data from class '" + this.getClass().getName() +
                     "' when query would not contain WHERE clause.");
-        } else {
-            query += " WHERE " + Utils.join(queryAddition, " AND ");
         }
 
-        Cursor cursor = readableDatabase.rawQuery(query, null);
-        try {
-            if (cursor.getCount() == 1) {
-                cursor.moveToFirst();
-                // Fetch the ID
-                this.id = cursor.getInt(0);
-                // load by id now
-                this.onLoad();
-            } else {
-                // Close the cursor
-                cursor.close();
-                if (cursor.getCount() == 0)
-                    throw new DatabaseLoadException(this, "Didn't find a matching row to load this DatabaseRow from (query: '" + query + "')");
-                else if (cursor.getCount() > 1)
-                    throw new DatabaseLoadException(this, "Found multiple rows matching the query ('" + query + "') (" + cursor.getCount() + ")");
-            }
-        } finally {
-            // Close the cursor
-            cursor.close();
-        }
+        // Also finds the rows that are queued and not in the database yet
+        List<Integer> ids = helper.findIds(tableName, columnNames.subList(0, values.size()), values);
+        if (ids.size() == 1) {
+            // Fetch the ID
+            this.id = ids.get(0);
+            // load by id now
+            this.onLoad();
+        } else if (ids.size() == 0)
+            throw new DatabaseLoadException(this, "Didn't find a matching row to load this DatabaseRow from (columns: " + columnNames + ")");
+        else
+            throw new DatabaseLoadException(this, "Found multiple rows matching the columns " + columnNames + " (" + ids.size() + ")");
     }
 
     /**
@@ -299,53 +306,149 @@ public abstract class DatabaseRow implements ISaveable, Serializable {
     }
 
     /**
-     * Get the data of the cursor on a certain build_order_index, based on the type.
+     * Loads all rows of a table on the DatabaseExecutor thread.
      *
-     * @param cursor The cursor that contains the data.
-     * @param type   The type your field is in.
-     * @param index  The build_order_index of the location of the data in the cursor.
-     * @return The resulting object matching to the type.
+     * @param c        The DatabaseRow class of the table, must have a public constructor without parameters.
+     * @param callback Receives the rows, ordered by id, on the main thread. May be null.
+     * @return The future of the rows.
      */
-    private Object getValueOfCursor(Cursor cursor, Class type, int index) {
-        if (type.isAssignableFrom(Integer.class) || type.isAssignableFrom(int.class)) {
-            return cursor.getInt(index);
-        } else if (type.isAssignableFrom(Long.class) || type.isAssignableFrom(long.class)) {
-            return cursor.getLong(index);
-        } else if (type.isAssignableFrom(Boolean.class) || type.isAssignableFrom(boolean.class)) {
-            // 0 is false, otherwise is true
-            return cursor.getInt(index) > 0;
-            /*
-            String value = cursor.getString(index);
-            if (value == null) return false;
-            return value.toLowerCase().equals("true");
-            */
-        } else if (type.isAssignableFrom(String.class)) {
-            return cursor.getString(index);
-        } else if (type.isAssignableFrom(Float.class) || type.isAssignableFrom(float.class)) {
-            return cursor.getDouble(index);
-        } else if (type.isAssignableFrom(Double.class) || type.isAssignableFrom(double.class)) {
-            return cursor.getFloat(index);
-        } else {
-            throw new IllegalArgumentException("Unable to assign value from cursor to class " + type.getName() +
-                    " with index " + index + ". This type is not supported.");
+    public static <T extends DatabaseRow> Future<List<T>> loadAllAsync(final Class<T> c, DatabaseExecutor.Callback<List<T>> callback) {
+        return DatabaseExecutor.getInstance().submit(new Callable<List<T>>() {
+            public List<T> call() {
+                return loadAll(c);
+            }
+        }, callback);
+    }
+
+    /**
+     * Loads all rows of a table in one query.
+     *
+     * @param c The DatabaseRow class of the table, must have a public constructor without parameters.
+     * @return The rows, ordered by id.
+     */
+    public static <T extends DatabaseRow> List<T> loadAll(Class<T> c) {
+        return DatabaseRow.loadWhere(c, null);
+    }
+
+    /**
+     * Loads all rows of a table matching a selection, in one query.
+     *
+     * @param c             The DatabaseRow class of the table, must have a public constructor without parameters.
+     * @param selection     The WHERE clause (without WHERE), with ? for the arguments. Null loads all rows.
+     * @param selectionArgs The arguments for the ?'s in the selection.
+     * @return The rows, ordered by id.
+     */
+    public static <T extends DatabaseRow> List<T> loadWhere(Class<T> c, String selection, String... selectionArgs) {
+        List<T> rows = new ArrayList<T>();
+        if (DatabaseRow.NO_QUERIES)
+            return rows;
+
+        DatabaseOpenHelper helper = DatabaseOpenHelper.getInstance();
+        String tableName = DatabaseOpenHelper.getTableName(c);
+        if (tableName == null)
+            throw new IllegalArgumentException("Class '" + c.getName() + "' does not have a table!");
+
+        String query = "SELECT * FROM `" + tableName + "`";
+        if (selection != null)
+            query += " WHERE " + selection;
+        query += " ORDER BY `id`";
+
+        TableDescriptor descriptor = TableDescriptor.forClass(c);
+        Cursor cursor = helper.readableDatabase.rawQuery(query, selectionArgs);
+        try {
+            // Resolve the columns once for the whole cursor
+            int[] mapping = descriptor.mapColumns(cursor);
+            int idColumn = cursor.getColumnIndex("id");
+            while (cursor.moveToNext()) {
+                T row = newRow(c);
+                if (idColumn >= 0)
+                    row.id = cursor.getInt(idColumn);
+                descriptor.readRow(row, cursor, mapping);
+                rows.add(row);
+            }
+        } finally {
+            // Close the cursor
+            cursor.close();
         }
+
+        // Queued writes are not in the database yet, they can only be matched without a selection
+        if (selection == null)
+            applyPendingRows(c, tableName, descriptor, rows);
+        return rows;
     }
 
     /**
-     * Get all database fields
+     * Creates an empty row with the no-argument constructor of the class.
      *
-     * @return
+     * @param c The DatabaseRow class.
+     * @return The new row.
      */
-    private Field[] getDatabaseFields() {
-        List<Field> databaseFields = new ArrayList<Field>();
+    private static <T extends DatabaseRow> T newRow(Class<T> c) {
+        try {
+            return c.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cannot create instance of '" + c.getName() + "'", e);
+        }
+    }
 
-        Field[] fields = this.getClass().getDeclaredFields();
-        for (Field f : fields) {
-            if (!f.isAnnotationPresent(DatabaseExclude.class))
-                databaseFields.add(f);
+    /**
+     * Applies the queued writes of a table to the rows loaded from the database.
+     *
+     * @param c          The DatabaseRow class of the table.
+     * @param tableName  The table name.
+     * @param descriptor The descriptor of the class.
+     * @param rows       The rows loaded from the database, ordered by id.
+     */
+    private static <T extends DatabaseRow> void applyPendingRows(Class<T> c, String tableName, TableDescriptor descriptor, List<T> rows) {
+        List<DatabaseBatchManager.PendingRow> pendingRows = DatabaseOpenHelper.getInstance().getPendingRows(tableName);
+        if (pendingRows.size() == 0)
+            return;
+
+        HashMap<Integer, DatabaseBatchManager.PendingRow> pendingById = new HashMap<Integer, DatabaseBatchManager.PendingRow>();
+        for (DatabaseBatchManager.PendingRow pendingRow : pendingRows) {
+            pendingById.put(pendingRow.id, pendingRow);
         }
 
-        return databaseFields.toArray(new Field[0]);
+        Iterator<T> iterator = rows.iterator();
+        while (iterator.hasNext()) {
+            T row = iterator.next();
+            DatabaseBatchManager.PendingRow pendingRow = pendingById.remove(row.id);
+            if (pendingRow == null)
+                continue;
+            if (pendingRow.deleted)
+                iterator.remove();
+            else
+                descriptor.readValues(row, pendingRow.values);
+        }
+
+        // The rest is queued for insertion
+        boolean added = false;
+        for (DatabaseBatchManager.PendingRow pendingRow : pendingById.values()) {
+            if (pendingRow.deleted)
+                continue;
+            T row = newRow(c);
+            row.id = pendingRow.id;
+            descriptor.readValues(row, pendingRow.values);
+            rows.add(row);
+            added = true;
+        }
+
+        if (added) {
+            Collections.sort(rows, new Comparator<T>() {
+                public int compare(T lhs, T rhs) {
+                    return lhs.id < rhs.id ? -1 : (lhs.id == rhs.id ? 0 : 1);
+                }
+            });
+        }
+    }
+
+    /**
+     * Get the reflection metadata of the implementing class.
+     *
+     * @return The cached descriptor.
+     */
+    protected TableDescriptor getTableDescriptor() {
+        return TableDescriptor.forClass(this.getClass());
     }
 
     /**
@@ -355,14 +458,7 @@ public abstract class DatabaseRow implements ISaveable, Serializable {
      * @return The list containing the field names.
      */
     private List<String> getDatabaseFieldNames() {
-        List<String> fieldNames = new ArrayList<String>();
-
-        Field[] fields = this.getDatabaseFields();
-        for (Field f : fields) {
-            fieldNames.add(f.getName());
-        }
-
-        return fieldNames;
+        return this.getTableDescriptor().getColumnNames();
     }
 
 
@@ -386,29 +482,14 @@ public abstract class DatabaseRow implements ISaveable, Serializable {
         if (fieldNames.size() == 0)
             throw new IllegalArgumentException("Cannot get field values of 0 fields!");
 
-        List<String> fieldValues = new ArrayList<String>();
+        List<String> fieldValues = new ArrayList<String>(fieldNames.size());
 
-        Field[] fields = this.getDatabaseFields();
-        // For every value we want
+        TableDescriptor descriptor = this.getTableDescriptor();
+        // For every value we want, skipping the ones we don't have
         for (String s : fieldNames) {
-            // For every value we have
-            for (Field f : fields) {
-                // If there is no annotation present, and if the value we have is a value we want
-                if (!f.isAnnotationPresent(DatabaseExclude.class) && fieldNames.contains(f.getName())) {
-                    // If the value we want is the value we have
-                    if (s.equals(f.getName())) {
-                        try {
-                            Object value = f.get(this);
-                            if( value != null && (f.getType() == boolean.class || f.getType() == Boolean.class) ){
-                                value = ((Boolean) value ? 1 : 0);
-                            }
-                            // Add it to the list!
-                            fieldValues.add(String.valueOf(value));
-                        } catch (IllegalAccessException e) {
-
-                        }
-                    }
-                }
+            int index = descriptor.indexOf(s);
+            if (index >= 0) {
+                fieldValues.add(descriptor.getValueString(this, index));
             }
         }
         return fieldValues;
@@ -71,7 +71,7 @@ public class Logger {
         }
     }
 
-    private static String formatMessage(String message, Object... args) {
+    static String formatMessage(String message, Object... args) {
         String formatted;
         try {
             /*
@@ -16,4 +16,9 @@ public class Stopwatch {
         long now = System.currentTimeMillis();
         return (now - start) / 1000.0;
     }
+
+    // return time (in milliseconds) since this object was created
+    public long elapsedTimeMillis() {
+        return System.currentTimeMillis() - start;
+    }
 }
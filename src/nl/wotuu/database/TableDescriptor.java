@@ -0,0 +1,278 @@
+package nl.wotuu.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nl.wotuu.database.annotations.DatabaseExclude;
+
+/**
+ * Reflection metadata of a DatabaseRow class: the database fields, their column names and types.
+ * Built once per class and shared between threads, so the fields are not scanned for every query.
+ */
+public class TableDescriptor {
+
+    public static final int TYPE_INT = 1;
+    public static final int TYPE_LONG = 2;
+    public static final int TYPE_BOOLEAN = 3;
+    public static final int TYPE_STRING = 4;
+    public static final int TYPE_FLOAT = 5;
+    public static final int TYPE_DOUBLE = 6;
+    public static final int TYPE_UNSUPPORTED = 0;
+
+    private static final ConcurrentHashMap<Class<?>, TableDescriptor> descriptors =
+            new ConcurrentHashMap<Class<?>, TableDescriptor>();
+
+    private final Class<?> rowClass;
+    private final Field[] fields;
+    private final String[] columnNames;
+    private final int[] typeCodes;
+    private final HashMap<String, Integer> columnIndex;
+    private final List<String> columnNameList;
+
+    /**
+     * Get the descriptor of a DatabaseRow class.
+     *
+     * @param c The class of the DatabaseRow.
+     * @return The (cached) descriptor.
+     */
+    public static TableDescriptor forClass(Class<?> c) {
+        TableDescriptor descriptor = descriptors.get(c);
+        if (descriptor == null) {
+            descriptor = new TableDescriptor(c);
+            TableDescriptor existing = descriptors.putIfAbsent(c, descriptor);
+            if (existing != null)
+                descriptor = existing;
+        }
+        return descriptor;
+    }
+
+    private TableDescriptor(Class<?> c) {
+        this.rowClass = c;
+
+        // The declared fields of the implementing class, without the excluded and static ones.
+        List<Field> databaseFields = new ArrayList<Field>();
+        for (Field f : c.getDeclaredFields()) {
+            if (f.isAnnotationPresent(DatabaseExclude.class) || Modifier.isStatic(f.getModifiers()) || f.isSynthetic())
+                continue;
+            f.setAccessible(true);
+            databaseFields.add(f);
+        }
+
+        this.fields = databaseFields.toArray(new Field[databaseFields.size()]);
+        this.columnNames = new String[this.fields.length];
+        this.typeCodes = new int[this.fields.length];
+        this.columnIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < this.fields.length; i++) {
+            this.columnNames[i] = this.fields[i].getName();
+            this.typeCodes[i] = getTypeCode(this.fields[i].getType());
+            this.columnIndex.put(this.columnNames[i], i);
+        }
+
+        List<String> names = new ArrayList<String>();
+        Collections.addAll(names, this.columnNames);
+        this.columnNameList = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Get the type code of a field type.
+     *
+     * @param type The type of the field.
+     * @return One of the TYPE_ constants.
+     */
+    public static int getTypeCode(Class<?> type) {
+        if (type == int.class || type == Integer.class)
+            return TYPE_INT;
+        if (type == long.class || type == Long.class)
+            return TYPE_LONG;
+        if (type == boolean.class || type == Boolean.class)
+            return TYPE_BOOLEAN;
+        if (type == String.class)
+            return TYPE_STRING;
+        if (type == float.class || type == Float.class)
+            return TYPE_FLOAT;
+        if (type == double.class || type == Double.class)
+            return TYPE_DOUBLE;
+        return TYPE_UNSUPPORTED;
+    }
+
+    public Class<?> getRowClass() {
+        return this.rowClass;
+    }
+
+    public int getFieldCount() {
+        return this.fields.length;
+    }
+
+    public Field getField(int index) {
+        return this.fields[index];
+    }
+
+    public String getColumnName(int index) {
+        return this.columnNames[index];
+    }
+
+    public int getTypeCode(int index) {
+        return this.typeCodes[index];
+    }
+
+    /**
+     * @return The column names in field order. Do not modify.
+     */
+    public List<String> getColumnNames() {
+        return this.columnNameList;
+    }
+
+    /**
+     * Get the field index of a column.
+     *
+     * @param columnName The name of the column.
+     * @return The index, or -1 when this class has no such field.
+     */
+    public int indexOf(String columnName) {
+        Integer index = this.columnIndex.get(columnName);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Get the value of a field as it is stored in the database.
+     *
+     * @param row   The row to read the value from.
+     * @param index The field index.
+     * @return The string value; booleans are stored as 1 or 0.
+     */
+    public String getValueString(Object row, int index) {
+        try {
+            Object value = this.fields[index].get(row);
+            if (value != null && this.typeCodes[index] == TYPE_BOOLEAN) {
+                value = ((Boolean) value ? 1 : 0);
+            }
+            return String.valueOf(value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot read field " + this.columnNames[index] + " of " + this.rowClass.getName(), e);
+        }
+    }
+
+    /**
+     * Map the columns of a cursor to field indexes, once per query.
+     *
+     * @param cursor The cursor.
+     * @return For every cursor column the field index, or -1 when there is no such field.
+     */
+    public int[] mapColumns(Cursor cursor) {
+        int[] mapping = new int[cursor.getColumnCount()];
+        for (int i = 0; i < mapping.length; i++) {
+            mapping[i] = this.indexOf(cursor.getColumnName(i));
+        }
+        return mapping;
+    }
+
+    /**
+     * Set the fields of a row from the current position of a cursor.
+     *
+     * @param row     The row to fill.
+     * @param cursor  The cursor, positioned on the row.
+     * @param mapping The column mapping from mapColumns.
+     */
+    public void readRow(Object row, Cursor cursor, int[] mapping) {
+        for (int column = 0; column < mapping.length; column++) {
+            int index = mapping[column];
+            if (index < 0)
+                continue;
+            try {
+                this.fields[index].set(row, this.getValueOfCursor(cursor, index, column));
+            } catch (IllegalAccessException e) {
+                throw new NullPointerException("Cannot fetch value from database! Type of column name " +
+                        this.columnNames[index] + " is not supported.");
+            }
+        }
+    }
+
+    /**
+     * Set the fields of a row from values as they are stored in the database.
+     *
+     * @param row    The row to fill.
+     * @param values The values, by column name. Columns that are missing are left alone.
+     */
+    public void readValues(Object row, ContentValues values) {
+        for (int index = 0; index < this.fields.length; index++) {
+            if (!values.containsKey(this.columnNames[index]))
+                continue;
+            try {
+                this.fields[index].set(row, this.getValueOfString(values.getAsString(this.columnNames[index]), index));
+            } catch (IllegalAccessException e) {
+                throw new NullPointerException("Cannot fetch value from queued row! Type of column name " +
+                        this.columnNames[index] + " is not supported.");
+            }
+        }
+    }
+
+    /**
+     * Get the value of a stored string, based on the type of the field. Numbers that do not parse are 0,
+     * like SQLite returns them from a cursor.
+     *
+     * @param value The stored value.
+     * @param index The field index.
+     * @return The resulting object matching to the type.
+     */
+    private Object getValueOfString(String value, int index) {
+        try {
+            switch (this.typeCodes[index]) {
+                case TYPE_INT:
+                    return value == null ? 0 : Integer.parseInt(value);
+                case TYPE_LONG:
+                    return value == null ? 0L : Long.parseLong(value);
+                case TYPE_BOOLEAN:
+                    // 0 is false, otherwise is true
+                    return value != null && Integer.parseInt(value) > 0;
+                case TYPE_STRING:
+                    return value;
+                case TYPE_FLOAT:
+                    return value == null ? 0f : Float.parseFloat(value);
+                case TYPE_DOUBLE:
+                    return value == null ? 0d : Double.parseDouble(value);
+                default:
+                    throw new IllegalArgumentException("Unable to assign value to class " +
+                            this.fields[index].getType().getName() + ". This type is not supported.");
+            }
+        } catch (NumberFormatException e) {
+            return this.getValueOfString(null, index);
+        }
+    }
+
+    /**
+     * Get the data of the cursor on a certain index, based on the type of the field.
+     *
+     * @param cursor The cursor that contains the data.
+     * @param index  The field index.
+     * @param column The column index in the cursor.
+     * @return The resulting object matching to the type.
+     */
+    private Object getValueOfCursor(Cursor cursor, int index, int column) {
+        switch (this.typeCodes[index]) {
+            case TYPE_INT:
+                return cursor.getInt(column);
+            case TYPE_LONG:
+                return cursor.getLong(column);
+            case TYPE_BOOLEAN:
+                // 0 is false, otherwise is true
+                return cursor.getInt(column) > 0;
+            case TYPE_STRING:
+                return cursor.getString(column);
+            case TYPE_FLOAT:
+                return cursor.getFloat(column);
+            case TYPE_DOUBLE:
+                return cursor.getDouble(column);
+            default:
+                throw new IllegalArgumentException("Unable to assign value from cursor to class " +
+                        this.fields[index].getType().getName() + " with index " + column + ". This type is not supported.");
+        }
+    }
+}
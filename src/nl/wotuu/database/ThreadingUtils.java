@@ -33,7 +33,8 @@ public class ThreadingUtils {
      * @param task The task to start.
      * @param params The parameters to pass to the async task when starting.
      */
-    public static <T> void StartASyncTask(AsyncTask task, T... params){
+    @SuppressWarnings("unchecked") // generic varargs, params are only passed on to the task
+    public static <T> void StartASyncTask(AsyncTask<T, ?, ?> task, T... params){
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
             task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, params);
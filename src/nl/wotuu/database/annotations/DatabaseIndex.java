@@ -0,0 +1,25 @@
+package nl.wotuu.database.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Creates an index on the column of this field.
+ * Fields with the same index name end up in one composite index, with its columns sorted by order()
+ * and then by field name. The declaration order of fields is not reliable at runtime, so it is not used.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface DatabaseIndex {
+    /**
+     * @return The name of the index, leave empty for an index on this column only.
+     */
+    String value() default "";
+
+    /**
+     * @return The position of this column in a composite index, lower comes first.
+     */
+    int order() default 0;
+}